@@ -0,0 +1,191 @@
+package com.example.scaleimageview;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.pdf.PdfDocument;
+import android.graphics.pdf.PdfRenderer;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 多个PdfRenderer并行渲染的吞吐量
+ * 生成一份矢量内容较多的文档，分别用1、2、4个线程各自打开PdfRenderer渲染所有页面，
+ * 每秒渲染页数和相对单线程的加速比通过instrumentation状态输出（am instrument -r 可见），同时写入logcat。
+ * API 26及以上PdfRenderer的native调用共用一把进程级的锁，加速比应当接近1，
+ * 这是{@link PdfRenderScheduler}把渲染线程数限制为1的依据；加速比明显大于1时说明可以重新开启渲染池。
+ * API 21~25没有这把锁，pdfium并发不安全，不运行。
+ */
+@RunWith(AndroidJUnit4.class)
+public class PdfRenderPoolBenchmark {
+    private static final String TAG = "PdfRenderPoolBenchmark";
+    private static final int PAGE_COUNT = 24;
+    private static final int PAGE_WIDTH = 595;
+    private static final int PAGE_HEIGHT = 842;
+    private static final float RENDER_SCALE = 2f;
+    private static final int ROUNDS = 3;
+    private static final int MAX_THREADS = 4;
+    //渲染被串行化时允许的加速比，超出时限制线程数的前提不再成立
+    private static final double MAX_SERIALIZED_SPEEDUP = 1.3;
+
+    private File mPdfFile;
+
+    @Before
+    public void setUp() throws IOException {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mPdfFile = new File(context.getCacheDir(), "render_pool_benchmark.pdf");
+        writeDocument(mPdfFile);
+    }
+
+    @After
+    public void tearDown() {
+        mPdfFile.delete();
+    }
+
+    @Test
+    public void schedulerUsesSingleRenderer() throws IOException {
+        ParcelFileDescriptor fileDescriptor = ParcelFileDescriptor.open(mPdfFile, ParcelFileDescriptor.MODE_READ_ONLY);
+        PdfRenderScheduler scheduler = new PdfRenderScheduler(new PdfRenderer(fileDescriptor), fileDescriptor, MAX_THREADS);
+        try {
+            assertEquals(1, scheduler.getPoolSize());
+            assertEquals(1, PdfRenderScheduler.defaultPoolSize());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelRenderersAreSerialized() throws Exception {
+        assumeTrue("pdfium is not safe to use from several threads before API 26",
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.O);
+        int processors = Runtime.getRuntime().availableProcessors();
+        Bundle results = new Bundle();
+        double baseline = 0;
+        double speedup = 1;
+        for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+            //预热一轮，让页面解析和bitmap池就绪
+            renderAll(threads);
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < ROUNDS; i++) {
+                best = Math.min(best, renderAll(threads));
+            }
+            double pagesPerSecond = PAGE_COUNT * 1000.0 / best;
+            if (threads == 1) {
+                baseline = pagesPerSecond;
+            }
+            speedup = pagesPerSecond / baseline;
+            String line = String.format(Locale.US, "threads=%d processors=%d %.1f pages/s speedup=%.2fx",
+                    threads, processors, pagesPerSecond, speedup);
+            Log.i(TAG, line);
+            results.putString("threads_" + threads, line);
+            results.putDouble("speedup_" + threads, speedup);
+        }
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+        assertTrue(String.format(Locale.US, "%d renderers reached %.2fx, PdfRenderer no longer serializes renders",
+                MAX_THREADS, speedup), speedup < MAX_SERIALIZED_SPEEDUP);
+    }
+
+    /**
+     * 每个线程打开自己的PdfRenderer，按页号交错分配页面
+     *
+     * @return 耗时，毫秒
+     */
+    private long renderAll(final int threadCount) throws Exception {
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int first = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        renderPages(first, threadCount);
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            }, "render-" + t);
+        }
+        long start = SystemClock.elapsedRealtime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long duration = SystemClock.elapsedRealtime() - start;
+        assertNull(error.get());
+        return duration;
+    }
+
+    private void renderPages(int first, int step) throws IOException {
+        ParcelFileDescriptor fileDescriptor = ParcelFileDescriptor.open(mPdfFile, ParcelFileDescriptor.MODE_READ_ONLY);
+        PdfRenderer renderer = new PdfRenderer(fileDescriptor);
+        try {
+            for (int i = first; i < PAGE_COUNT; i += step) {
+                PdfRenderer.Page page = renderer.openPage(i);
+                try {
+                    BitmapPool.getInstance().put(PdfScaleImageView.renderPdfPage(page, RENDER_SCALE));
+                } finally {
+                    page.close();
+                }
+            }
+        } finally {
+            renderer.close();
+            fileDescriptor.close();
+        }
+    }
+
+    private static void writeDocument(File file) throws IOException {
+        PdfDocument document = new PdfDocument();
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setStyle(Paint.Style.STROKE);
+        Path path = new Path();
+        for (int i = 0; i < PAGE_COUNT; i++) {
+            PdfDocument.Page page = document.startPage(new PdfDocument.PageInfo.Builder(PAGE_WIDTH, PAGE_HEIGHT, i).create());
+            Canvas canvas = page.getCanvas();
+            //大量细小的曲线和文字，光栅化耗时明显
+            for (int row = 0; row < 80; row++) {
+                path.reset();
+                path.moveTo(0, row * 10);
+                for (int x = 0; x < PAGE_WIDTH; x += 5) {
+                    path.quadTo(x + 2.5f, row * 10 + ((x + i) % 20) - 10, x + 5, row * 10);
+                }
+                paint.setColor(Color.rgb(row * 3, i * 10, 128));
+                canvas.drawPath(path, paint);
+                canvas.drawText("page " + i + " row " + row, 20, row * 10 + 8, paint);
+            }
+            document.finishPage(page);
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            document.writeTo(out);
+        } finally {
+            out.close();
+            document.close();
+        }
+    }
+}
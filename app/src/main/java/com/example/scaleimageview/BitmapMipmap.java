@@ -0,0 +1,160 @@
+package com.example.scaleimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.AsyncTask;
+import android.view.View;
+
+/**
+ * 底图的mipmap
+ * level k 为底图缩小 2^k 倍，每一级由上一级缩小一半得到，双线性过滤相当于2x2取平均。
+ * 缩小绘制时取不小于目标尺寸的最近一级，每帧只需要把一张接近屏幕大小的图缩小不到一半，
+ * 减少填充开销，也不会因为跳过像素而走样。第一次缩小到 1/2 以下时才在后台生成，生成之前绘制底图。
+ */
+final class BitmapMipmap {
+    private static final int MAX_LEVEL = 4;
+    //小于这个边长不再继续缩小
+    private static final int MIN_SIZE = 64;
+
+    //生成完成后重绘
+    private final View mView;
+    private Bitmap mSource;
+    //mLevels[0]不使用，level 0 即底图
+    private final Bitmap[] mLevels = new Bitmap[MAX_LEVEL + 1];
+    private int mLevelCount;
+    //已经生成过，底图太小时可能一级都没有
+    private boolean isBuilt;
+    private BuildTask mBuildTask;
+
+    BitmapMipmap(View view) {
+        this.mView = view;
+    }
+
+    /**
+     * 更换底图，之前的level放回复用池
+     */
+    void setSource(Bitmap source) {
+        if (source == mSource) {
+            return;
+        }
+        clear();
+        mSource = source;
+    }
+
+    /**
+     * 按底图的绘制缩放比选择level，需要的level还没有生成时开始生成并先返回0
+     *
+     * @param scale 底图像素到view像素的缩放比
+     */
+    int levelFor(float scale) {
+        if (mSource == null || scale > 0.5f) {
+            return 0;
+        }
+        int level = Math.min(MAX_LEVEL, (int) Math.floor(Math.log(1 / scale) / Math.log(2)));
+        if (!isBuilt && mBuildTask == null) {
+            mBuildTask = new BuildTask(mSource);
+            mBuildTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+        return Math.min(level, mLevelCount);
+    }
+
+    Bitmap getLevel(int level) {
+        return level == 0 ? mSource : mLevels[level];
+    }
+
+    /**
+     * 释放所有level，生成中的结果完成后丢弃
+     */
+    void clear() {
+        clear(null);
+    }
+
+    /**
+     * 释放所有level，同时把不再使用的底图放回复用池。
+     * 生成任务还在读取这张底图时，等任务结束后再放回，避免被复用覆盖或回收。
+     */
+    void clear(Bitmap release) {
+        if (mBuildTask != null) {
+            mBuildTask.cancel(false);
+            if (release != null && release == mBuildTask.mFrom) {
+                mBuildTask.isReleaseFrom = true;
+                release = null;
+            }
+            mBuildTask = null;
+        }
+        if (release != null) {
+            BitmapPool.getInstance().put(release);
+        }
+        for (int i = 1; i <= mLevelCount; i++) {
+            BitmapPool.getInstance().put(mLevels[i]);
+            mLevels[i] = null;
+        }
+        mLevelCount = 0;
+        isBuilt = false;
+        mSource = null;
+    }
+
+    private class BuildTask extends AsyncTask<Void, Void, Bitmap[]> {
+        private final Bitmap mFrom;
+        //主线程设置，任务结束后把底图放回复用池
+        private boolean isReleaseFrom;
+
+        BuildTask(Bitmap from) {
+            this.mFrom = from;
+        }
+
+        @Override
+        protected Bitmap[] doInBackground(Void... voids) {
+            Bitmap[] levels = new Bitmap[MAX_LEVEL + 1];
+            Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            Bitmap previous = mFrom;
+            for (int level = 1; level <= MAX_LEVEL && !isCancelled(); level++) {
+                int width = previous.getWidth() / 2;
+                int height = previous.getHeight() / 2;
+                if (width < MIN_SIZE || height < MIN_SIZE) {
+                    break;
+                }
+                Bitmap.Config config = previous.getConfig() != null ? previous.getConfig() : Bitmap.Config.ARGB_8888;
+                Bitmap bitmap = BitmapPool.getInstance().get(width, height, config);
+                Canvas canvas = new Canvas(bitmap);
+                canvas.scale((float) width / previous.getWidth(), (float) height / previous.getHeight());
+                canvas.drawBitmap(previous, 0, 0, paint);
+                levels[level] = bitmap;
+                previous = bitmap;
+            }
+            return levels;
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap[] levels) {
+            if (mBuildTask != this || mSource != mFrom) {
+                onCancelled(levels);
+                return;
+            }
+            mBuildTask = null;
+            int count = 0;
+            while (count < MAX_LEVEL && levels[count + 1] != null) {
+                count++;
+                mLevels[count] = levels[count];
+            }
+            mLevelCount = count;
+            isBuilt = true;
+            mView.invalidate();
+        }
+
+        @Override
+        protected void onCancelled(Bitmap[] levels) {
+            //doInBackground已经返回，不会再读取底图
+            if (isReleaseFrom) {
+                BitmapPool.getInstance().put(mFrom);
+            }
+            if (levels == null) {
+                return;
+            }
+            for (Bitmap bitmap : levels) {
+                BitmapPool.getInstance().put(bitmap);
+            }
+        }
+    }
+}
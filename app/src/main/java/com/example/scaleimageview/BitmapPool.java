@@ -0,0 +1,175 @@
+package com.example.scaleimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * bitmap复用池
+ * 按宽、高、config分组缓存不再使用的bitmap，总字节数不超过上限，超出时按最久未使用淘汰。
+ * 页面底图、高清补丁、tile都从这里获取，用完后放回，避免每次手势、翻页都重新申请大块内存。
+ */
+public class BitmapPool {
+    //默认上限为最大可用内存的1/8
+    private static final long DEFAULT_MAX_SIZE = Runtime.getRuntime().maxMemory() / 8;
+
+    private static BitmapPool sInstance;
+
+    private final Map<Long, ArrayDeque<Bitmap>> mGroups = new HashMap<>();
+    //所有缓存bitmap的放入顺序，队头最久未使用，取出时按bitmap直接删除
+    private final LinkedHashSet<Bitmap> mLruQueue = new LinkedHashSet<>();
+    private long mMaxSize;
+    private long mCurrentSize;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+    private int mEvictionCount;
+
+    public static synchronized BitmapPool getInstance() {
+        if (sInstance == null) {
+            sInstance = new BitmapPool(DEFAULT_MAX_SIZE);
+        }
+        return sInstance;
+    }
+
+    public BitmapPool(long maxSize) {
+        this.mMaxSize = maxSize;
+    }
+
+    /**
+     * 获取一个指定尺寸的bitmap，优先复用，像素已经清空为透明
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap;
+        synchronized (this) {
+            bitmap = poll(key(width, height, config));
+            if (bitmap != null) {
+                mHitCount++;
+            } else {
+                mMissCount++;
+            }
+        }
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, config);
+            RenderMemoryBudget.getInstance().track(bitmap);
+            return bitmap;
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    private Bitmap poll(long key) {
+        ArrayDeque<Bitmap> group = mGroups.get(key);
+        if (group == null || group.isEmpty()) {
+            return null;
+        }
+        Bitmap bitmap = group.pollLast();
+        mLruQueue.remove(bitmap);
+        mCurrentSize -= bitmap.getByteCount();
+        return bitmap;
+    }
+
+    /**
+     * 归还bitmap，不可变或者超过上限的直接回收
+     */
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        int size = bitmap.getByteCount();
+        if (!bitmap.isMutable() || bitmap.getConfig() == null || size > getMaxSize()) {
+            recycle(bitmap);
+            return;
+        }
+        synchronized (this) {
+            long key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            if (mLruQueue.contains(bitmap)) {
+                return;
+            }
+            ArrayDeque<Bitmap> group = mGroups.get(key);
+            if (group == null) {
+                group = new ArrayDeque<>();
+                mGroups.put(key, group);
+            }
+            group.offerLast(bitmap);
+            mLruQueue.add(bitmap);
+            mCurrentSize += size;
+            mPutCount++;
+            trimToSize(mMaxSize);
+        }
+    }
+
+    /**
+     * 淘汰最久未使用的bitmap，直到总大小不超过size
+     */
+    public synchronized void trimToSize(long size) {
+        Iterator<Bitmap> iterator = mLruQueue.iterator();
+        while (mCurrentSize > size && iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            iterator.remove();
+            ArrayDeque<Bitmap> group = mGroups.get(key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig()));
+            if (group != null) {
+                group.remove(bitmap);
+            }
+            mCurrentSize -= bitmap.getByteCount();
+            mEvictionCount++;
+            recycle(bitmap);
+        }
+    }
+
+    private static void recycle(Bitmap bitmap) {
+        RenderMemoryBudget.getInstance().untrack(bitmap);
+        bitmap.recycle();
+    }
+
+    public synchronized void setMaxSize(long maxSize) {
+        this.mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public void clear() {
+        trimToSize(0);
+    }
+
+    public synchronized long getMaxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized long getCurrentSize() {
+        return mCurrentSize;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getPutCount() {
+        return mPutCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int accesses = mHitCount + mMissCount;
+        int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+        return "BitmapPool[size=" + mCurrentSize + ",maxSize=" + mMaxSize + ",hits=" + mHitCount
+                + ",misses=" + mMissCount + ",hitRate=" + hitPercent + "%]";
+    }
+
+    private static long key(int width, int height, Bitmap.Config config) {
+        return ((long) width << 32) | ((long) height << 8) | config.ordinal();
+    }
+}
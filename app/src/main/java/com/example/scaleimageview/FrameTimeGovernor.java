@@ -0,0 +1,130 @@
+package com.example.scaleimageview;
+
+import java.util.Arrays;
+
+/**
+ * 帧时间调节
+ * 记录拖动、缩放、动画过程中相邻两帧的间隔，每收集满一个窗口计算一次p95：
+ * 超过预算时降一级，依次降低补丁和tile分辨率 -> 减少预取页数 -> 降低之后渲染的底图分辨率；
+ * 低于预算的{@link #EXIT_RATIO}并且连续{@link #RAISE_WINDOWS}个窗口都有余量时才升一级，避免在临界值来回切换。
+ * 只在主线程使用，降级通过监听通知使用方执行。
+ */
+public class FrameTimeGovernor implements ScaleImageView.OnFrameTimeListener {
+    public static final int LEVEL_NORMAL = 0;
+    public static final int LEVEL_LOW_PART = 1;
+    public static final int LEVEL_LOW_PREFETCH = 2;
+    public static final int LEVEL_LOW_BASE = 3;
+
+    //60Hz下允许每帧超出半个vsync
+    private static final long DEFAULT_BUDGET_NANOS = 25000000L;
+    private static final int WINDOW_SIZE = 60;
+    private static final float EXIT_RATIO = 0.7f;
+    private static final int RAISE_WINDOWS = 3;
+    private static final float LOW_PART_RESOLUTION = 0.5f;
+    private static final float LOW_BASE_SCALE = 0.75f;
+
+    private final long[] mSamples = new long[WINDOW_SIZE];
+    private int mSampleCount;
+    private long mBudgetNanos = DEFAULT_BUDGET_NANOS;
+    private int mLevel = LEVEL_NORMAL;
+    //连续有余量的窗口数
+    private int mHeadroomWindows;
+    private long mLastP95Nanos;
+    private OnLevelChangeListener mListener;
+
+    /**
+     * 帧时间预算，纳秒，高刷新率屏幕需要相应调小
+     */
+    public void setFrameBudgetNanos(long budgetNanos) {
+        mBudgetNanos = Math.max(1, budgetNanos);
+    }
+
+    public long getFrameBudgetNanos() {
+        return mBudgetNanos;
+    }
+
+    public void setOnLevelChangeListener(OnLevelChangeListener listener) {
+        mListener = listener;
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * 上一个窗口的p95帧间隔，纳秒，0 还没有统计
+     */
+    public long getLastP95Nanos() {
+        return mLastP95Nanos;
+    }
+
+    /**
+     * 补丁、tile的渲染分辨率
+     */
+    public float getPartResolution() {
+        return mLevel >= LEVEL_LOW_PART ? LOW_PART_RESOLUTION : 1f;
+    }
+
+    /**
+     * 预取页数，每降一级减半
+     */
+    public int getPrefetchDepth(int depth) {
+        return mLevel >= LEVEL_LOW_PREFETCH ? depth >> (mLevel - LEVEL_LOW_PART) : depth;
+    }
+
+    /**
+     * 新渲染底图的分辨率缩放
+     */
+    public float getBaseScale() {
+        return mLevel >= LEVEL_LOW_BASE ? LOW_BASE_SCALE : 1f;
+    }
+
+    @Override
+    public void onFrameTime(long intervalNanos) {
+        mSamples[mSampleCount++] = intervalNanos;
+        if (mSampleCount < WINDOW_SIZE) {
+            return;
+        }
+        mSampleCount = 0;
+        //原地排序，不申请内存
+        Arrays.sort(mSamples);
+        mLastP95Nanos = mSamples[WINDOW_SIZE * 95 / 100];
+        if (mLastP95Nanos > mBudgetNanos) {
+            mHeadroomWindows = 0;
+            if (mLevel < LEVEL_LOW_BASE) {
+                setLevel(mLevel + 1);
+            }
+        } else if (mLastP95Nanos < mBudgetNanos * EXIT_RATIO) {
+            if (mLevel > LEVEL_NORMAL && ++mHeadroomWindows >= RAISE_WINDOWS) {
+                mHeadroomWindows = 0;
+                setLevel(mLevel - 1);
+            }
+        } else {
+            mHeadroomWindows = 0;
+        }
+    }
+
+    /**
+     * 丢弃统计，恢复到正常等级
+     */
+    public void reset() {
+        mSampleCount = 0;
+        mHeadroomWindows = 0;
+        mLastP95Nanos = 0;
+        setLevel(LEVEL_NORMAL);
+    }
+
+    private void setLevel(int level) {
+        if (level == mLevel) {
+            return;
+        }
+        mLevel = level;
+        if (mListener != null) {
+            mListener.onFrameLevelChanged(level);
+        }
+    }
+
+    public interface OnLevelChangeListener {
+        void onFrameLevelChanged(int level);
+    }
+}
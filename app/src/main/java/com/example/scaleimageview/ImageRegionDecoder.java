@@ -0,0 +1,256 @@
+package com.example.scaleimageview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 图片解码
+ * 所有view共用一个后台解码线程。先用inSampleSize解码一张不小于屏幕的底图，
+ * 放大后由{@link PdfTileManager}算出缺失的tile，用BitmapRegionDecoder按tile所在层级的采样率解码原图中的区域。
+ * level n 的tile采样率为 底图采样率 / 2^n，最高层级为原图分辨率。
+ * 结果在主线程回调，recycle之后的结果放回复用池。
+ */
+final class ImageRegionDecoder {
+    //底图边长上限，超出时继续加大采样率
+    private static final int MAX_BASE_SIZE = 4096;
+
+    private static Handler sDecodeHandler;
+
+    private final Context mContext;
+    private final ImageSource mSource;
+    private final Callback mCallback;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    //主线程修改，解码线程检查
+    private volatile boolean isRecycled;
+    //每次请求tile加一，解码线程跳过旧请求中还没有开始的tile
+    private volatile int mTileGeneration;
+
+    //以下在解码底图时确定，之后只读
+    private BitmapRegionDecoder mDecoder;
+    private int mWidth;
+    private int mHeight;
+    private int mBaseSample = 1;
+    private int mMaxTileLevel;
+
+    //解码线程使用
+    private final Rect mRegion = new Rect();
+    private final BitmapFactory.Options mTileOptions = new BitmapFactory.Options();
+
+    ImageRegionDecoder(Context context, ImageSource source, Callback callback) {
+        this.mContext = context.getApplicationContext();
+        this.mSource = source;
+        this.mCallback = callback;
+        mTileOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    }
+
+    private static synchronized Handler decodeHandler() {
+        if (sDecodeHandler == null) {
+            HandlerThread thread = new HandlerThread("ImageDecoder", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sDecodeHandler = new Handler(thread.getLooper());
+        }
+        return sDecodeHandler;
+    }
+
+    /**
+     * 底图的最高tile层级，0 格式不支持区域解码或者底图就是原图
+     */
+    int getMaxTileLevel() {
+        return mMaxTileLevel;
+    }
+
+    /**
+     * 解码底图
+     *
+     * @param targetWidth  底图两个方向都不小于目标尺寸，通常为view或者屏幕尺寸
+     */
+    void loadBase(final int targetWidth, final int targetHeight) {
+        decodeHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (isRecycled) {
+                    return;
+                }
+                try {
+                    final Bitmap base = decodeBase(targetWidth, targetHeight);
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (isRecycled) {
+                                BitmapPool.getInstance().put(base);
+                                return;
+                            }
+                            mCallback.onBaseDecoded(ImageRegionDecoder.this, base, mWidth, mHeight, mBaseSample);
+                        }
+                    });
+                } catch (final IOException e) {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!isRecycled) {
+                                mCallback.onDecodeFailed(ImageRegionDecoder.this, e);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private Bitmap decodeBase(int targetWidth, int targetHeight) throws IOException {
+        try {
+            mDecoder = mSource.newRegionDecoder(mContext);
+        } catch (IOException e) {
+            //格式不支持区域解码，只解码底图
+            mDecoder = null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (mDecoder != null) {
+            mWidth = mDecoder.getWidth();
+            mHeight = mDecoder.getHeight();
+        } else {
+            options.inJustDecodeBounds = true;
+            decodeStream(options);
+            mWidth = options.outWidth;
+            mHeight = options.outHeight;
+            options.inJustDecodeBounds = false;
+        }
+        if (mWidth <= 0 || mHeight <= 0) {
+            throw new IOException("can not decode " + mSource);
+        }
+        mBaseSample = sampleSizeFor(mWidth, mHeight, targetWidth, targetHeight);
+        options.inSampleSize = mBaseSample;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap base;
+        if (mDecoder != null) {
+            mRegion.set(0, 0, mWidth, mHeight);
+            base = mDecoder.decodeRegion(mRegion, options);
+            mMaxTileLevel = log2(mBaseSample);
+        } else {
+            base = decodeStream(options);
+        }
+        if (base == null) {
+            throw new IOException("can not decode " + mSource);
+        }
+        return base;
+    }
+
+    private Bitmap decodeStream(BitmapFactory.Options options) throws IOException {
+        InputStream input = mSource.openStream(mContext);
+        try {
+            return BitmapFactory.decodeStream(input, null, options);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * 按顺序解码tile，之前请求中还没有开始的tile被跳过
+     */
+    void loadTiles(List<PdfTileManager.Tile> tiles) {
+        final int generation = ++mTileGeneration;
+        if (mDecoder == null || tiles.isEmpty()) {
+            return;
+        }
+        final List<PdfTileManager.Tile> pending = new ArrayList<>(tiles);
+        decodeHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                for (PdfTileManager.Tile tile : pending) {
+                    if (isRecycled || generation != mTileGeneration) {
+                        return;
+                    }
+                    decodeTile(tile);
+                }
+            }
+        });
+    }
+
+    private void decodeTile(final PdfTileManager.Tile tile) {
+        int sample = Math.max(1, mBaseSample >> tile.level);
+        int size = PdfTileManager.TILE_SIZE * sample;
+        int left = tile.col * size;
+        int top = tile.row * size;
+        mRegion.set(left, top, Math.min(mWidth, left + size), Math.min(mHeight, top + size));
+        if (mRegion.isEmpty()) {
+            return;
+        }
+        mTileOptions.inSampleSize = sample;
+        final Bitmap bitmap = mDecoder.decodeRegion(mRegion, mTileOptions);
+        if (bitmap == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (isRecycled) {
+                    BitmapPool.getInstance().put(bitmap);
+                    return;
+                }
+                tile.bitmap = bitmap;
+                mCallback.onTileDecoded(ImageRegionDecoder.this, tile);
+            }
+        });
+    }
+
+    /**
+     * 主线程调用，排队中的解码全部跳过，解码器在解码线程释放
+     */
+    void recycle() {
+        isRecycled = true;
+        decodeHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (mDecoder != null) {
+                    mDecoder.recycle();
+                    mDecoder = null;
+                }
+            }
+        });
+    }
+
+    /**
+     * 2的幂采样率，底图在两个方向上都不小于目标尺寸，同时边长不超过{@link #MAX_BASE_SIZE}
+     */
+    static int sampleSizeFor(int width, int height, int targetWidth, int targetHeight) {
+        int sample = 1;
+        while (width / (sample * 2) >= targetWidth && height / (sample * 2) >= targetHeight) {
+            sample *= 2;
+        }
+        while (width / sample > MAX_BASE_SIZE || height / sample > MAX_BASE_SIZE) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    private static int log2(int value) {
+        return 31 - Integer.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * 主线程回调
+     */
+    interface Callback {
+        /**
+         * @param width  原图尺寸
+         * @param sample 底图采样率
+         */
+        void onBaseDecoded(ImageRegionDecoder decoder, Bitmap base, int width, int height, int sample);
+
+        void onTileDecoded(ImageRegionDecoder decoder, PdfTileManager.Tile tile);
+
+        void onDecodeFailed(ImageRegionDecoder decoder, IOException e);
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.scaleimageview;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.BitmapRegionDecoder;
+import android.net.Uri;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 图片来源，{@link ScaleImageView#setImage}使用
+ * 只描述从哪里读取，解码在后台线程进行：先按view尺寸采样解码底图，放大后按需解码可见区域。
+ * 资源图片按原始像素读取，不做密度缩放。
+ */
+public abstract class ImageSource {
+    private final String mName;
+
+    private ImageSource(String name) {
+        this.mName = name;
+    }
+
+    /**
+     * 打开数据流，在解码线程调用，由调用方关闭
+     */
+    abstract InputStream openStream(Context context) throws IOException;
+
+    /**
+     * 区域解码器，格式不支持区域解码时抛出IOException
+     */
+    BitmapRegionDecoder newRegionDecoder(Context context) throws IOException {
+        InputStream input = openStream(context);
+        try {
+            return BitmapRegionDecoder.newInstance(input, false);
+        } finally {
+            input.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+
+    public static ImageSource fromResource(final int resId) {
+        return new ImageSource("res:" + resId) {
+            @Override
+            InputStream openStream(Context context) throws IOException {
+                return context.getResources().openRawResource(resId);
+            }
+        };
+    }
+
+    public static ImageSource fromAsset(final String assetName) {
+        return new ImageSource("asset:" + assetName) {
+            @Override
+            InputStream openStream(Context context) throws IOException {
+                return context.getAssets().open(assetName);
+            }
+        };
+    }
+
+    public static ImageSource fromFile(final String path) {
+        return new ImageSource(path) {
+            @Override
+            InputStream openStream(Context context) throws IOException {
+                return new FileInputStream(path);
+            }
+
+            @Override
+            BitmapRegionDecoder newRegionDecoder(Context context) throws IOException {
+                //文件可以随机读取，不需要把整个文件读入内存
+                return BitmapRegionDecoder.newInstance(path, false);
+            }
+        };
+    }
+
+    /**
+     * content、file、android.resource uri
+     */
+    public static ImageSource fromUri(final Uri uri) {
+        return new ImageSource(uri.toString()) {
+            @Override
+            InputStream openStream(Context context) throws IOException {
+                if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+                    return new FileInputStream(uri.getPath());
+                }
+                InputStream input = context.getContentResolver().openInputStream(uri);
+                if (input == null) {
+                    throw new FileNotFoundException("can not open " + uri);
+                }
+                return input;
+            }
+        };
+    }
+}
@@ -1,27 +1,17 @@
 package com.example.scaleimageview;
 
-import android.Manifest;
 import android.annotation.TargetApi;
-import android.content.pm.PackageManager;
 import android.os.Build;
-import android.os.Environment;
-import android.support.annotation.NonNull;
 import android.support.annotation.RequiresApi;
-import android.support.v4.app.ActivityCompat;
-import android.support.v4.content.ContextCompat;
 import android.support.v4.view.ViewPager;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
 @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
 public class MainActivity extends AppCompatActivity {
     private ViewPager viewPager;
-    private String path = Environment.getExternalStorageDirectory().getAbsolutePath() + File.separator + "simple.pdf";
     private PdfViewPagerHelper helper;
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
@@ -34,58 +24,20 @@ public class MainActivity extends AppCompatActivity {
         viewPager = findViewById(R.id.pdf_view);
         helper = new PdfViewPagerHelper(this);
 
-        registerPermission();
-
-    }
-
-    private void registerPermission() {
-        if (ContextCompat.checkSelfPermission(this, Manifest.permission.WRITE_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED) {
-            ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.WRITE_EXTERNAL_STORAGE}, 1);
-        } else {
-            writePdfFile();
-        }
-
-        if (ContextCompat.checkSelfPermission(this, Manifest.permission.READ_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED) {
-            ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.READ_EXTERNAL_STORAGE}, 1);
-        } else {
-            readPdf();
-        }
-    }
-
-    @Override
-    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
-        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
-        if (ContextCompat.checkSelfPermission(this, Manifest.permission.WRITE_EXTERNAL_STORAGE) == PackageManager.PERMISSION_GRANTED) {
-            writePdfFile();
-        }
-
-        if (ContextCompat.checkSelfPermission(this, Manifest.permission.READ_EXTERNAL_STORAGE) == PackageManager.PERMISSION_GRANTED) {
-            readPdf();
-        }
-
+        readPdf();
     }
 
     private void readPdf() {
-        try {
-            helper.attachViewPager(viewPager, path);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
+        //asset在后台分块复制到临时文件，不需要存储权限
+        helper.open(viewPager, PdfSource.fromAsset("demo.pdf"), new PdfViewPagerHelper.OnOpenListener() {
+            @Override
+            public void onOpened(PdfPageIndex pageIndex) {
+            }
 
-    private void writePdfFile() {
-        File file = new File(path);
-        if (!file.exists()) {
-            try {
-                InputStream inputStream = getAssets().open("demo.pdf");
-                FileOutputStream fileOutputStream = new FileOutputStream(file);
-                byte[] bytes = new byte[inputStream.available()];
-                inputStream.read(bytes);
-                fileOutputStream.write(bytes);
-                fileOutputStream.flush();
-            } catch (IOException e) {
+            @Override
+            public void onOpenFailed(IOException e) {
                 e.printStackTrace();
             }
-        }
+        });
     }
 }
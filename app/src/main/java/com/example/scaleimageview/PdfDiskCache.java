@@ -0,0 +1,514 @@
+package com.example.scaleimageview;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 渲染结果磁盘缓存
+ * 索引文件通过mmap映射为定长槽位的hash表，每个槽位记录key、尺寸、渲染缩放比、字节数、最近访问时钟和页面原始尺寸；
+ * 每条缓存是一个原始像素(ARGB_8888)文件，读取时映射后直接拷贝到复用池中的bitmap。
+ * 总大小超过上限、或者槽位使用超过3/4时，按最近访问时钟淘汰。
+ * 写入一整页的像素耗时较长，通过{@link #putAsync}在低优先级的写线程进行，像素文件在锁外写入，不阻塞读取。
+ */
+public class PdfDiskCache {
+    private static final String TAG = "PdfDiskCache";
+    private static final String INDEX_FILE = "index";
+    private static final String ENTRY_SUFFIX = ".px";
+
+    public static final int KIND_PAGE = 1;
+
+    private static final int MAGIC = 0x50444643;
+    private static final int VERSION = 2;
+    private static final int SLOT_COUNT = 4096;
+    //header: magic, version, slotCount, reserved, clock
+    private static final int HEADER_SIZE = 24;
+    private static final int OFFSET_CLOCK = 16;
+    //slot: key, width, height, scale, byteCount, lastAccess, pageWidth, pageHeight
+    private static final int SLOT_SIZE = 40;
+    private static final int SLOT_KEY = 0;
+    private static final int SLOT_WIDTH = 8;
+    private static final int SLOT_HEIGHT = 12;
+    private static final int SLOT_SCALE = 16;
+    private static final int SLOT_BYTES = 20;
+    private static final int SLOT_ACCESS = 24;
+    private static final int SLOT_PAGE_SIZE = 32;
+    private static final long EMPTY = 0;
+    private static final long TOMBSTONE = -1;
+
+    //同一个目录在进程内只映射一次索引
+    private static final Map<String, PdfDiskCache> sInstances = new HashMap<>();
+    private static Handler sWriteHandler;
+
+    private final File mDirectory;
+    private long mMaxSize;
+    private final MappedByteBuffer mIndex;
+    private long mSize;
+    private int mUsedSlots;
+    private int mTombstones;
+
+    private PdfDiskCache(File directory, long maxSize) throws IOException {
+        this.mDirectory = directory;
+        this.mMaxSize = maxSize;
+        File indexFile = new File(directory, INDEX_FILE);
+        long indexSize = HEADER_SIZE + (long) SLOT_COUNT * SLOT_SIZE;
+        RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+        boolean valid;
+        try {
+            valid = file.length() == indexSize;
+            file.setLength(indexSize);
+            //关闭文件后映射仍然有效
+            mIndex = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, indexSize);
+        } finally {
+            file.close();
+        }
+        if (!valid || mIndex.getInt(0) != MAGIC || mIndex.getInt(4) != VERSION || mIndex.getInt(8) != SLOT_COUNT) {
+            reset();
+        } else {
+            load();
+        }
+    }
+
+    /**
+     * 打开缓存目录，索引损坏或者版本不一致时清空重建，同一目录返回同一个实例
+     */
+    public static synchronized PdfDiskCache open(File directory, long maxSize) throws IOException {
+        String path = directory.getAbsolutePath();
+        PdfDiskCache cache = sInstances.get(path);
+        if (cache == null) {
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("can not create cache directory " + directory);
+            }
+            cache = new PdfDiskCache(directory, maxSize);
+            sInstances.put(path, cache);
+        } else if (cache.getMaxSize() != maxSize) {
+            cache.setMaxSize(maxSize);
+        }
+        return cache;
+    }
+
+    private void reset() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(ENTRY_SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+        for (int i = 0; i < HEADER_SIZE + SLOT_COUNT * SLOT_SIZE; i += 8) {
+            mIndex.putLong(i, 0);
+        }
+        mIndex.putInt(0, MAGIC);
+        mIndex.putInt(4, VERSION);
+        mIndex.putInt(8, SLOT_COUNT);
+        mSize = 0;
+        mUsedSlots = 0;
+        mTombstones = 0;
+    }
+
+    private void load() {
+        mSize = 0;
+        mUsedSlots = 0;
+        mTombstones = 0;
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            long key = mIndex.getLong(slotOffset(slot) + SLOT_KEY);
+            if (key == TOMBSTONE) {
+                mTombstones++;
+            } else if (key != EMPTY) {
+                mSize += mIndex.getInt(slotOffset(slot) + SLOT_BYTES);
+                mUsedSlots++;
+            }
+        }
+        if (mTombstones > 0) {
+            rehash();
+        }
+    }
+
+    /**
+     * 删除留下的墓碑会拉长探测链，重新插入所有有效槽位
+     */
+    private void rehash() {
+        int count = 0;
+        long[] keys = new long[mUsedSlots];
+        long[] values = new long[mUsedSlots * 4];
+        for (int slot = 0; slot < SLOT_COUNT && count < keys.length; slot++) {
+            int offset = slotOffset(slot);
+            long key = mIndex.getLong(offset + SLOT_KEY);
+            if (key != EMPTY && key != TOMBSTONE) {
+                keys[count] = key;
+                values[count * 4] = mIndex.getLong(offset + SLOT_WIDTH);
+                values[count * 4 + 1] = mIndex.getLong(offset + SLOT_SCALE);
+                values[count * 4 + 2] = mIndex.getLong(offset + SLOT_ACCESS);
+                values[count * 4 + 3] = mIndex.getLong(offset + SLOT_PAGE_SIZE);
+                count++;
+            }
+        }
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            mIndex.putLong(slotOffset(slot) + SLOT_KEY, EMPTY);
+        }
+        for (int i = 0; i < count; i++) {
+            int offset = slotOffset(findFreeSlot(keys[i]));
+            mIndex.putLong(offset + SLOT_WIDTH, values[i * 4]);
+            mIndex.putLong(offset + SLOT_SCALE, values[i * 4 + 1]);
+            mIndex.putLong(offset + SLOT_ACCESS, values[i * 4 + 2]);
+            mIndex.putLong(offset + SLOT_PAGE_SIZE, values[i * 4 + 3]);
+            mIndex.putLong(offset + SLOT_KEY, keys[i]);
+        }
+        mTombstones = 0;
+    }
+
+    /**
+     * 文档指纹：文件长度 + 头尾各64KB内容的SHA-1
+     */
+    public static String fingerprint(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            return fingerprint(input.getChannel());
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * 描述符指纹，与{@link #fingerprint(File)}相同，按位置读取，不改变描述符的读取位置
+     */
+    public static String fingerprint(ParcelFileDescriptor fileDescriptor) throws IOException {
+        ParcelFileDescriptor dup = fileDescriptor.dup();
+        FileInputStream input = null;
+        try {
+            input = new FileInputStream(dup.getFileDescriptor());
+            return fingerprint(input.getChannel());
+        } finally {
+            if (input != null) {
+                input.close();
+            }
+            dup.close();
+        }
+    }
+
+    private static String fingerprint(FileChannel channel) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            long length = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            buffer.limit((int) Math.min(buffer.capacity(), length));
+            readFully(channel, buffer, 0);
+            digest.update(buffer.array(), 0, buffer.position());
+            if (length > buffer.capacity()) {
+                buffer.clear();
+                readFully(channel, buffer, Math.max(buffer.capacity(), length - buffer.capacity()));
+                digest.update(buffer.array(), 0, buffer.position());
+            }
+            StringBuilder builder = new StringBuilder(Long.toHexString(length)).append('-');
+            for (byte b : digest.digest()) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 缓存key，渲染缩放比由页面尺寸和显示区域决定，所以用显示区域代替缩放比，未打开页面就可以查询
+     */
+    public static long key(String fingerprint, int pageIndex, int kind, int width, int height, int orientation) {
+        //FNV-1a 64
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < fingerprint.length(); i++) {
+            hash = (hash ^ fingerprint.charAt(i)) * 0x100000001b3L;
+        }
+        hash = (hash ^ pageIndex) * 0x100000001b3L;
+        hash = (hash ^ kind) * 0x100000001b3L;
+        hash = (hash ^ width) * 0x100000001b3L;
+        hash = (hash ^ height) * 0x100000001b3L;
+        hash = (hash ^ orientation) * 0x100000001b3L;
+        return hash == EMPTY || hash == TOMBSTONE ? 1 : hash;
+    }
+
+    /**
+     * 查询缓存的渲染信息，不读取像素
+     *
+     * @param outInfo 渲染缩放比、页面宽、页面高
+     * @return 是否有缓存
+     */
+    public synchronized boolean getInfo(long key, float[] outInfo) {
+        int slot = findSlot(key);
+        if (slot < 0) {
+            return false;
+        }
+        int offset = slotOffset(slot);
+        outInfo[0] = mIndex.getFloat(offset + SLOT_SCALE);
+        outInfo[1] = mIndex.getFloat(offset + SLOT_PAGE_SIZE);
+        outInfo[2] = mIndex.getFloat(offset + SLOT_PAGE_SIZE + 4);
+        return true;
+    }
+
+    /**
+     * 读取缓存，像素拷贝到复用池中的bitmap
+     */
+    public synchronized Bitmap get(long key) {
+        int slot = findSlot(key);
+        if (slot < 0) {
+            return null;
+        }
+        int offset = slotOffset(slot);
+        int width = mIndex.getInt(offset + SLOT_WIDTH);
+        int height = mIndex.getInt(offset + SLOT_HEIGHT);
+        int byteCount = mIndex.getInt(offset + SLOT_BYTES);
+        File file = entryFile(key);
+        if (file.length() != byteCount) {
+            removeSlot(slot);
+            return null;
+        }
+        Bitmap bitmap = BitmapPool.getInstance().get(width, height, Bitmap.Config.ARGB_8888);
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                ByteBuffer pixels = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, byteCount);
+                bitmap.copyPixelsFromBuffer(pixels);
+            } finally {
+                input.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "read cache entry failed", e);
+            BitmapPool.getInstance().put(bitmap);
+            removeSlot(slot);
+            return null;
+        }
+        mIndex.putLong(offset + SLOT_ACCESS, tick());
+        return bitmap;
+    }
+
+    private static synchronized Handler writeHandler() {
+        if (sWriteHandler == null) {
+            HandlerThread thread = new HandlerThread("PdfDiskCacheWriter", Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sWriteHandler = new Handler(thread.getLooper());
+        }
+        return sWriteHandler;
+    }
+
+    /**
+     * 在写线程写入缓存，所有实例共用一个写线程，按提交顺序写入
+     *
+     * @param done 写入结束后在写线程执行，之前bitmap不能被修改或回收
+     */
+    public void putAsync(final long key, final Bitmap bitmap, final float scale, final float pageWidth,
+                         final float pageHeight, final Runnable done) {
+        writeHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    put(key, bitmap, scale, pageWidth, pageHeight);
+                } finally {
+                    if (done != null) {
+                        done.run();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 写入缓存，像素文件在锁外写入，写完后才加入索引。不能在多个线程同时写入，通常使用{@link #putAsync}
+     *
+     * @param scale      渲染时使用的缩放比
+     * @param pageWidth  页面原始宽
+     * @param pageHeight 页面原始高
+     */
+    public void put(long key, Bitmap bitmap, float scale, float pageWidth, float pageHeight) {
+        if (bitmap == null || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            return;
+        }
+        int byteCount = bitmap.getByteCount();
+        synchronized (this) {
+            if (byteCount > mMaxSize) {
+                return;
+            }
+            int existing = findSlot(key);
+            if (existing >= 0) {
+                removeSlot(existing);
+            }
+            //为新的缓存腾出空间
+            makeRoom(byteCount);
+        }
+        File file = entryFile(key);
+        try {
+            RandomAccessFile output = new RandomAccessFile(file, "rw");
+            try {
+                output.setLength(byteCount);
+                ByteBuffer pixels = output.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, byteCount);
+                bitmap.copyPixelsToBuffer(pixels);
+            } finally {
+                output.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "write cache entry failed", e);
+            file.delete();
+            return;
+        }
+        synchronized (this) {
+            //写文件期间上限可能被调小
+            if (byteCount > mMaxSize) {
+                file.delete();
+                return;
+            }
+            makeRoom(byteCount);
+            if (mUsedSlots + mTombstones >= SLOT_COUNT * 7 / 8) {
+                rehash();
+            }
+            int slot = findFreeSlot(key);
+            if (mIndex.getLong(slotOffset(slot) + SLOT_KEY) == TOMBSTONE) {
+                mTombstones--;
+            }
+            int offset = slotOffset(slot);
+            mIndex.putInt(offset + SLOT_WIDTH, bitmap.getWidth());
+            mIndex.putInt(offset + SLOT_HEIGHT, bitmap.getHeight());
+            mIndex.putFloat(offset + SLOT_SCALE, scale);
+            mIndex.putInt(offset + SLOT_BYTES, byteCount);
+            mIndex.putLong(offset + SLOT_ACCESS, tick());
+            mIndex.putFloat(offset + SLOT_PAGE_SIZE, pageWidth);
+            mIndex.putFloat(offset + SLOT_PAGE_SIZE + 4, pageHeight);
+            //最后写key，写入中途被杀不会留下指向不完整文件的槽位
+            mIndex.putLong(offset + SLOT_KEY, key);
+            mSize += byteCount;
+            mUsedSlots++;
+        }
+    }
+
+    private void makeRoom(int byteCount) {
+        while (mUsedSlots > 0 && (mSize + byteCount > mMaxSize || mUsedSlots >= SLOT_COUNT * 3 / 4)) {
+            removeSlot(findEldestSlot());
+        }
+    }
+
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public synchronized long getMaxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized void setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+        while (mUsedSlots > 0 && mSize > mMaxSize) {
+            removeSlot(findEldestSlot());
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        reset();
+    }
+
+    /**
+     * 索引写回磁盘
+     */
+    public synchronized void flush() {
+        mIndex.force();
+    }
+
+    /**
+     * 线性探测查找key所在槽位
+     *
+     * @return 不存在返回 -1
+     */
+    private int findSlot(long key) {
+        int start = slotIndex(key);
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            int slot = (start + i) % SLOT_COUNT;
+            long slotKey = mIndex.getLong(slotOffset(slot) + SLOT_KEY);
+            if (slotKey == key) {
+                return slot;
+            }
+            if (slotKey == EMPTY) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private int findFreeSlot(long key) {
+        int start = slotIndex(key);
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            int slot = (start + i) % SLOT_COUNT;
+            long slotKey = mIndex.getLong(slotOffset(slot) + SLOT_KEY);
+            if (slotKey == EMPTY || slotKey == TOMBSTONE) {
+                return slot;
+            }
+        }
+        //写入前已经保证最多使用3/4的槽位
+        throw new IllegalStateException("disk cache index is full");
+    }
+
+    private int findEldestSlot() {
+        int eldest = -1;
+        long eldestAccess = Long.MAX_VALUE;
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            int offset = slotOffset(slot);
+            long slotKey = mIndex.getLong(offset + SLOT_KEY);
+            if (slotKey != EMPTY && slotKey != TOMBSTONE && mIndex.getLong(offset + SLOT_ACCESS) < eldestAccess) {
+                eldestAccess = mIndex.getLong(offset + SLOT_ACCESS);
+                eldest = slot;
+            }
+        }
+        return eldest;
+    }
+
+    private void removeSlot(int slot) {
+        int offset = slotOffset(slot);
+        long key = mIndex.getLong(offset + SLOT_KEY);
+        entryFile(key).delete();
+        mSize -= mIndex.getInt(offset + SLOT_BYTES);
+        mUsedSlots--;
+        mTombstones++;
+        mIndex.putLong(offset + SLOT_KEY, TOMBSTONE);
+    }
+
+    private long tick() {
+        long clock = mIndex.getLong(OFFSET_CLOCK) + 1;
+        mIndex.putLong(OFFSET_CLOCK, clock);
+        return clock;
+    }
+
+    private File entryFile(long key) {
+        return new File(mDirectory, Long.toHexString(key) + ENTRY_SUFFIX);
+    }
+
+    private static int slotIndex(long key) {
+        return (int) ((key ^ (key >>> 32)) & 0x7fffffff) % SLOT_COUNT;
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+}
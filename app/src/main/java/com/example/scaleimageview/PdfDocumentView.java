@@ -0,0 +1,490 @@
+package com.example.scaleimageview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.pdf.PdfRenderer;
+import android.os.Build;
+import android.support.annotation.Nullable;
+import android.support.annotation.RequiresApi;
+import android.util.AttributeSet;
+import android.util.SparseArray;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+import android.widget.OverScroller;
+
+import java.util.ArrayList;
+
+/**
+ * 连续滚动的文档视图
+ * 所有页面按view宽度铺满、上下排列，布局只依赖{@link PdfPageIndex}，不需要打开页面。
+ * 只有可见范围(加上下预留)内的页面占用槽位和bitmap，滑出范围的槽位取消渲染、bitmap放回复用池，槽位本身循环使用。
+ * 缩放作用于整个文档；快速fling时只绘制占位，不提交渲染，速度降下来之后再渲染可见页。
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class PdfDocumentView extends View {
+    private static final float DEFAULT_MAX_ZOOM = 4f;
+    private static final float DOUBLE_TAP_ZOOM = 2f;
+    //页面最高按2倍渲染，更大的缩放直接拉伸
+    private static final float MAX_RENDER_ZOOM = 2f;
+    //渲染倍数按0.5取整，避免缩放时频繁重新渲染
+    private static final float RENDER_ZOOM_STEP = 0.5f;
+    //可见范围上下额外保留的屏数
+    private static final float PRELOAD_SCREENS = 0.5f;
+    //fling速度高于此值(dp/s)时不提交渲染
+    private static final int FAST_FLING_VELOCITY = 2500;
+    private static final int PAGE_GAP = 8;//dp
+    //页面尺寸未知时按A4比例布局
+    private static final float DEFAULT_PAGE_RATIO = 1.414f;
+
+    private PdfRenderScheduler mScheduler;
+    private PdfPageIndex mPageIndex;
+    //zoom为1时每页的顶部位置，最后一个元素为文档总高度
+    private float[] mPageTops = new float[1];
+    private int mLayoutWidth;
+    private final float mPageGap;
+
+    private float mZoom = 1f;
+    private float mMaxZoom = DEFAULT_MAX_ZOOM;
+    private float mScrollX;
+    private float mScrollY;
+    private int mCurrentPage = -1;
+    private OnPageChangeListener mOnPageChangeListener;
+
+    private final OverScroller mScroller;
+    private final GestureDetector mGestureDetector;
+    private final ScaleGestureDetector mScaleDetector;
+    private final float mFastFlingVelocity;
+
+    //显示中的页面，key为页码
+    private final SparseArray<PageSlot> mSlots = new SparseArray<>();
+    //回收的槽位
+    private final ArrayList<PageSlot> mSlotPool = new ArrayList<>();
+
+    private final Matrix mDrawMatrix = new Matrix();
+    private final RectF mPageRect = new RectF();
+    private final Paint mBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint mPlaceholderPaint = new Paint();
+
+    public PdfDocumentView(Context context) {
+        this(context, null);
+    }
+
+    public PdfDocumentView(Context context, @Nullable AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public PdfDocumentView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        float density = getResources().getDisplayMetrics().density;
+        mPageGap = PAGE_GAP * density;
+        mFastFlingVelocity = FAST_FLING_VELOCITY * density;
+        mPlaceholderPaint.setColor(Color.WHITE);
+        mScroller = new OverScroller(context);
+        mGestureDetector = new GestureDetector(context, new GestureListener());
+        mScaleDetector = new ScaleGestureDetector(context, new ScaleListener());
+        setBackgroundColor(Color.LTGRAY);
+    }
+
+    /**
+     * 设置文档，渲染请求提交到scheduler
+     *
+     * @param scheduler null 清空
+     */
+    public void setDocument(PdfRenderScheduler scheduler, PdfPageIndex pageIndex) {
+        releaseSlots();
+        mScheduler = scheduler;
+        mPageIndex = scheduler != null ? pageIndex : null;
+        mLayoutWidth = 0;
+        mZoom = 1f;
+        mScrollX = 0;
+        mScrollY = 0;
+        mCurrentPage = -1;
+        mScroller.forceFinished(true);
+        invalidate();
+    }
+
+    public void setMaxZoom(float maxZoom) {
+        mMaxZoom = Math.max(1f, maxZoom);
+    }
+
+    public float getZoom() {
+        return mZoom;
+    }
+
+    public void setOnPageChangeListener(OnPageChangeListener listener) {
+        mOnPageChangeListener = listener;
+    }
+
+    /**
+     * view中心所在的页面，-1 没有文档
+     */
+    public int getCurrentPage() {
+        return mCurrentPage;
+    }
+
+    public int getPageCount() {
+        return mPageIndex == null ? 0 : mPageIndex.getPageCount();
+    }
+
+    /**
+     * 滚动到页面顶部
+     */
+    public void scrollToPage(int page) {
+        if (!ensureLayout() || page < 0 || page >= getPageCount()) {
+            return;
+        }
+        mScroller.forceFinished(true);
+        setScroll(mScrollX, mPageTops[page] * mZoom);
+    }
+
+    /**
+     * 按view宽度计算每页的位置，宽度变化时重新计算
+     *
+     * @return false 没有文档或者还没有尺寸
+     */
+    private boolean ensureLayout() {
+        if (mPageIndex == null || mPageIndex.getPageCount() == 0 || getWidth() == 0 || getHeight() == 0) {
+            return false;
+        }
+        if (mLayoutWidth == getWidth()) {
+            return true;
+        }
+        float anchor = mLayoutWidth > 0 ? mScrollY / (mPageTops[mPageTops.length - 1] * mZoom) : 0;
+        mLayoutWidth = getWidth();
+        int count = mPageIndex.getPageCount();
+        if (mPageTops.length != count + 1) {
+            mPageTops = new float[count + 1];
+        }
+        float top = 0;
+        for (int i = 0; i < count; i++) {
+            mPageTops[i] = top;
+            top += pageHeight(i) + mPageGap;
+        }
+        mPageTops[count] = top;
+        //宽度变化后保持相对滚动位置
+        releaseSlots();
+        setScroll(mScrollX, anchor * top * mZoom);
+        return true;
+    }
+
+    /**
+     * zoom为1时的页面高度
+     */
+    private float pageHeight(int position) {
+        if (!mPageIndex.hasPageSize(position)) {
+            return mLayoutWidth * DEFAULT_PAGE_RATIO;
+        }
+        return mLayoutWidth * mPageIndex.getPageHeight(position) / mPageIndex.getPageWidth(position);
+    }
+
+    /**
+     * zoom为1时y坐标所在的页面
+     */
+    private int pageAt(float y) {
+        int low = 0;
+        int high = mPageTops.length - 2;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mPageTops[mid] <= y) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private void setScroll(float x, float y) {
+        float maxX = Math.max(0, mLayoutWidth * mZoom - getWidth());
+        float maxY = Math.max(0, mPageTops[mPageTops.length - 1] * mZoom - getHeight());
+        mScrollX = Math.max(0, Math.min(maxX, x));
+        mScrollY = Math.max(0, Math.min(maxY, y));
+        invalidate();
+    }
+
+    /**
+     * 以焦点为中心缩放整个文档
+     */
+    private void zoomTo(float zoom, float focusX, float focusY) {
+        zoom = Math.max(1f, Math.min(mMaxZoom, zoom));
+        float factor = zoom / mZoom;
+        mZoom = zoom;
+        setScroll((mScrollX + focusX) * factor - focusX, (mScrollY + focusY) * factor - focusY);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (!ensureLayout()) {
+            return super.onTouchEvent(event);
+        }
+        mScaleDetector.onTouchEvent(event);
+        if (!mScaleDetector.isInProgress()) {
+            mGestureDetector.onTouchEvent(event);
+        }
+        int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            //手指离开，没有fling时渲染停下来的位置
+            invalidate();
+        }
+        return true;
+    }
+
+    @Override
+    public void computeScroll() {
+        if (mScroller.computeScrollOffset()) {
+            setScroll(mScroller.getCurrX(), mScroller.getCurrY());
+            postInvalidateOnAnimation();
+        }
+    }
+
+    /**
+     * 快速fling、缩放过程中只绘制已有内容
+     */
+    private boolean canRender() {
+        if (mScaleDetector.isInProgress()) {
+            return false;
+        }
+        return mScroller.isFinished() || mScroller.getCurrVelocity() < mFastFlingVelocity;
+    }
+
+    /**
+     * 当前缩放需要的渲染倍数
+     */
+    private float renderZoom() {
+        float zoom = (float) Math.ceil(Math.min(mZoom, MAX_RENDER_ZOOM) / RENDER_ZOOM_STEP) * RENDER_ZOOM_STEP;
+        return zoom * RenderMemoryBudget.getInstance().getResolutionScale();
+    }
+
+    /**
+     * 回收可见范围之外的槽位，可见范围内缺少或者分辨率不对的页面提交渲染
+     */
+    private void updateSlots() {
+        float margin = getHeight() * PRELOAD_SCREENS;
+        int first = pageAt(Math.max(0, (mScrollY - margin) / mZoom));
+        int last = pageAt((mScrollY + getHeight() + margin) / mZoom);
+        for (int i = mSlots.size() - 1; i >= 0; i--) {
+            int page = mSlots.keyAt(i);
+            if (page < first || page > last) {
+                recycleSlot(mSlots.valueAt(i));
+                mSlots.removeAt(i);
+            }
+        }
+        boolean canRender = canRender();
+        float renderZoom = renderZoom();
+        for (int page = first; page <= last; page++) {
+            PageSlot slot = mSlots.get(page);
+            if (slot == null) {
+                slot = obtainSlot(page);
+                mSlots.put(page, slot);
+            }
+            if (canRender) {
+                slot.render(renderZoom);
+            }
+        }
+        int current = pageAt((mScrollY + getHeight() / 2f) / mZoom);
+        if (current != mCurrentPage) {
+            mCurrentPage = current;
+            if (mOnPageChangeListener != null) {
+                mOnPageChangeListener.onPageChanged(current, getPageCount());
+            }
+        }
+    }
+
+    private PageSlot obtainSlot(int page) {
+        int size = mSlotPool.size();
+        PageSlot slot = size > 0 ? mSlotPool.remove(size - 1) : new PageSlot();
+        slot.mPosition = page;
+        return slot;
+    }
+
+    private void recycleSlot(PageSlot slot) {
+        slot.release();
+        mSlotPool.add(slot);
+    }
+
+    private void releaseSlots() {
+        for (int i = 0; i < mSlots.size(); i++) {
+            recycleSlot(mSlots.valueAt(i));
+        }
+        mSlots.clear();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (!ensureLayout()) {
+            return;
+        }
+        updateSlots();
+        float pageWidth = mLayoutWidth * mZoom;
+        for (int i = 0; i < mSlots.size(); i++) {
+            PageSlot slot = mSlots.valueAt(i);
+            int page = slot.mPosition;
+            float top = mPageTops[page] * mZoom - mScrollY;
+            float bottom = (mPageTops[page + 1] - mPageGap) * mZoom - mScrollY;
+            if (bottom < 0 || top > getHeight()) {
+                continue;
+            }
+            mPageRect.set(-mScrollX, top, pageWidth - mScrollX, bottom);
+            if (slot.mBitmap == null) {
+                canvas.drawRect(mPageRect, mPlaceholderPaint);
+                continue;
+            }
+            float scale = pageWidth / slot.mBitmap.getWidth();
+            mDrawMatrix.setScale(scale, scale);
+            mDrawMatrix.postTranslate(mPageRect.left, mPageRect.top);
+            canvas.drawBitmap(slot.mBitmap, mDrawMatrix, mBitmapPaint);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mScroller.forceFinished(true);
+        releaseSlots();
+    }
+
+    private class GestureListener extends GestureDetector.SimpleOnGestureListener {
+        @Override
+        public boolean onDown(MotionEvent e) {
+            mScroller.forceFinished(true);
+            return true;
+        }
+
+        @Override
+        public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+            setScroll(mScrollX + distanceX, mScrollY + distanceY);
+            return true;
+        }
+
+        @Override
+        public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+            int maxX = (int) Math.max(0, mLayoutWidth * mZoom - getWidth());
+            int maxY = (int) Math.max(0, mPageTops[mPageTops.length - 1] * mZoom - getHeight());
+            mScroller.fling((int) mScrollX, (int) mScrollY, (int) -velocityX, (int) -velocityY, 0, maxX, 0, maxY);
+            postInvalidateOnAnimation();
+            return true;
+        }
+
+        @Override
+        public boolean onDoubleTap(MotionEvent e) {
+            zoomTo(mZoom > 1f ? 1f : DOUBLE_TAP_ZOOM, e.getX(), e.getY());
+            return true;
+        }
+
+        @Override
+        public boolean onSingleTapConfirmed(MotionEvent e) {
+            performClick();
+            return true;
+        }
+    }
+
+    private class ScaleListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
+        @Override
+        public boolean onScale(ScaleGestureDetector detector) {
+            zoomTo(mZoom * detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+            return true;
+        }
+
+        @Override
+        public void onScaleEnd(ScaleGestureDetector detector) {
+            //按新的缩放重新渲染
+            invalidate();
+        }
+    }
+
+    /**
+     * 页面槽位，持有一页的bitmap和正在进行的渲染，回收后重新分配给其他页面
+     */
+    private class PageSlot implements PdfRenderScheduler.OnRenderListener {
+        private int mPosition = -1;
+        private Bitmap mBitmap;
+        private float mRenderZoom;
+        private PdfRenderScheduler.RenderTask mTask;
+        private float mTaskZoom;
+
+        /**
+         * 没有bitmap或者分辨率不对时提交渲染，低于目标的bitmap在新结果出来之前继续显示
+         */
+        void render(float renderZoom) {
+            if (mScheduler == null || (mBitmap != null && mRenderZoom == renderZoom)
+                    || (mTask != null && mTaskZoom == renderZoom)) {
+                return;
+            }
+            if (mTask != null) {
+                mScheduler.cancel(mTask);
+            }
+            mTaskZoom = renderZoom;
+            mTask = new SlotRenderTask(mPosition, mLayoutWidth * renderZoom).addOnRenderListener(this);
+            mScheduler.submit(mTask);
+        }
+
+        void release() {
+            if (mTask != null && mScheduler != null) {
+                mScheduler.cancel(mTask);
+            }
+            mTask = null;
+            BitmapPool.getInstance().put(mBitmap);
+            mBitmap = null;
+            mRenderZoom = 0;
+            mPosition = -1;
+        }
+
+        @Override
+        public void onRenderComplete(PdfRenderScheduler.RenderTask task, Bitmap bitmap) {
+            if (task != mTask) {
+                BitmapPool.getInstance().put(bitmap);
+                return;
+            }
+            mTask = null;
+            if (bitmap == null) {
+                return;
+            }
+            BitmapPool.getInstance().put(mBitmap);
+            mBitmap = bitmap;
+            mRenderZoom = mTaskZoom;
+            invalidate();
+        }
+
+        @Override
+        public void onRenderCancelled(PdfRenderScheduler.RenderTask task) {
+            if (task == mTask) {
+                mTask = null;
+            }
+        }
+    }
+
+    /**
+     * 按目标宽度渲染整页
+     */
+    private static class SlotRenderTask extends PdfRenderScheduler.RenderTask {
+        private final int mPosition;
+        private final float mTargetWidth;
+
+        SlotRenderTask(int position, float targetWidth) {
+            super(PdfRenderScheduler.PRIORITY_CURRENT_PAGE, null);
+            this.mPosition = position;
+            this.mTargetWidth = targetWidth;
+        }
+
+        @Override
+        protected Bitmap onRender(PdfRenderScheduler.RenderContext context) {
+            PdfRenderer.Page page = context.openPage(mPosition);
+            if (page == null) {
+                return null;
+            }
+            return PdfScaleImageView.renderPdfPage(page, mTargetWidth / page.getWidth());
+        }
+    }
+
+    public interface OnPageChangeListener {
+        void onPageChanged(int page, int pageCount);
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.scaleimageview;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 渲染好的pdf页面缓存，按字节数lru淘汰
+ * 缓存的bitmap可能正在被页面显示，显示期间用{@link #acquire(Key)}/{@link #release(Bitmap)}计数，
+ * 被淘汰时如果仍在显示，等最后一次release之后再放回复用池。
+ */
+public class PdfPageCache extends LruCache<PdfPageCache.Key, Bitmap> {
+    //正在显示的bitmap引用计数
+    private final Map<Bitmap, Integer> mRefCounts = new IdentityHashMap<>();
+    //已经被淘汰但仍在显示的bitmap
+    private final Set<Bitmap> mOrphans = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+
+    /**
+     * 默认上限为最大可用内存的1/8
+     */
+    public static int defaultMaxSize() {
+        return (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    public PdfPageCache(int maxSize) {
+        super(maxSize);
+    }
+
+    @Override
+    protected int sizeOf(Key key, Bitmap value) {
+        return value.getByteCount();
+    }
+
+    @Override
+    protected void entryRemoved(boolean evicted, Key key, Bitmap oldValue, Bitmap newValue) {
+        if (oldValue == newValue) {
+            return;
+        }
+        synchronized (this) {
+            if (mRefCounts.containsKey(oldValue)) {
+                mOrphans.add(oldValue);
+                return;
+            }
+        }
+        BitmapPool.getInstance().put(oldValue);
+    }
+
+    /**
+     * 获取缓存页面并标记为正在显示
+     */
+    public Bitmap acquire(Key key) {
+        Bitmap bitmap = get(key);
+        if (bitmap != null) {
+            retain(bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 标记为正在显示
+     */
+    public synchronized void retain(Bitmap bitmap) {
+        Integer count = mRefCounts.get(bitmap);
+        mRefCounts.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * 页面不再显示，已经被淘汰的放回复用池
+     */
+    public void release(Bitmap bitmap) {
+        synchronized (this) {
+            Integer count = mRefCounts.get(bitmap);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                mRefCounts.put(bitmap, count - 1);
+                return;
+            }
+            mRefCounts.remove(bitmap);
+            if (!mOrphans.remove(bitmap)) {
+                return;
+            }
+        }
+        BitmapPool.getInstance().put(bitmap);
+    }
+
+    /**
+     * 缓存key：文档、页码、渲染缩放比、横竖屏
+     */
+    public static final class Key {
+        private final String document;
+        private final int pageIndex;
+        private final int scaleBits;
+        private final int orientation;
+
+        public Key(String document, int pageIndex, float scale, int orientation) {
+            this.document = document;
+            this.pageIndex = pageIndex;
+            this.scaleBits = Float.floatToIntBits(scale);
+            this.orientation = orientation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return pageIndex == key.pageIndex && scaleBits == key.scaleBits
+                    && orientation == key.orientation && document.equals(key.document);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = document.hashCode();
+            result = 31 * result + pageIndex;
+            result = 31 * result + scaleBits;
+            result = 31 * result + orientation;
+            return result;
+        }
+    }
+}
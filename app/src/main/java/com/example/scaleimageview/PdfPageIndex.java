@@ -0,0 +1,86 @@
+package com.example.scaleimageview;
+
+import android.graphics.pdf.PdfRenderer;
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+
+/**
+ * 页面尺寸索引，每页只占两个float
+ * 打开文档时在后台线程一次性读出所有页面的尺寸，之后布局、缩放比和滚动范围的计算都不需要再打开页面。
+ * 同步打开时索引为空，由渲染线程打开页面后逐页补充，所以读写都要加锁，尺寸只会从未知变为已知，
+ * hasPageSize返回true之后宽高都可以读到。
+ */
+public class PdfPageIndex {
+    private final float[] mWidths;
+    private final float[] mHeights;
+    private float mMaxWidth;
+
+    /**
+     * 尺寸未知的空索引
+     */
+    public PdfPageIndex(int pageCount) {
+        mWidths = new float[pageCount];
+        mHeights = new float[pageCount];
+    }
+
+    /**
+     * 逐页打开读取尺寸，耗时与页数成正比，不能在主线程调用，调用期间renderer不能被其他线程使用
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public static PdfPageIndex build(PdfRenderer renderer) {
+        int pageCount = renderer.getPageCount();
+        PdfPageIndex index = new PdfPageIndex(pageCount);
+        for (int i = 0; i < pageCount; i++) {
+            PdfRenderer.Page page = renderer.openPage(i);
+            try {
+                index.setPageSize(i, page.getWidth(), page.getHeight());
+            } finally {
+                page.close();
+            }
+        }
+        return index;
+    }
+
+    public int getPageCount() {
+        return mWidths.length;
+    }
+
+    /**
+     * 页面尺寸是否已知
+     */
+    public synchronized boolean hasPageSize(int position) {
+        return mWidths[position] > 0;
+    }
+
+    /**
+     * 页面原始宽度，0 未知
+     */
+    public synchronized float getPageWidth(int position) {
+        return mWidths[position];
+    }
+
+    /**
+     * 页面原始高度，0 未知
+     */
+    public synchronized float getPageHeight(int position) {
+        return mHeights[position];
+    }
+
+    /**
+     * 已知页面中的最大宽度
+     */
+    public synchronized float getMaxPageWidth() {
+        return mMaxWidth;
+    }
+
+    /**
+     * 渲染池的多个线程可能同时记录
+     */
+    synchronized void setPageSize(int position, float width, float height) {
+        if (width > 0 && height > 0) {
+            mHeights[position] = height;
+            mWidths[position] = width;
+            mMaxWidth = Math.max(mMaxWidth, width);
+        }
+    }
+}
@@ -0,0 +1,494 @@
+package com.example.scaleimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.pdf.PdfRenderer;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.support.annotation.RequiresApi;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * pdf渲染调度
+ * PdfRenderer同一时间只能打开一个page，这里每个渲染线程独占一个PdfRenderer和它当前打开的page，
+ * 所有渲染请求按优先级排队：可见补丁 > 当前页 > 相邻页 > 缩略图，同优先级先进先出。
+ * 相同key的请求合并为一个，完成回调在主线程执行。
+ * 渲染线程数固定为1：API 26及以上PdfRenderer的所有native调用（包括渲染）都在同一个进程级的锁内执行，
+ * 多个renderer也只能一个一个光栅化；API 21~25没有这把锁，而pdfium不是线程安全的，多个实例并发渲染可能native崩溃。
+ * 多线程的调度逻辑保留，pdfium能够安全并行时再放开{@link #MAX_POOL_SIZE}，见PdfRenderPoolBenchmark。
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class PdfRenderScheduler {
+    private static final String TAG = "PdfRenderScheduler";
+
+    public static final int PRIORITY_VISIBLE_PART = 0;
+    public static final int PRIORITY_CURRENT_PAGE = 1;
+    public static final int PRIORITY_NEIGHBOUR_PAGE = 2;
+    public static final int PRIORITY_THUMBNAIL = 3;
+    //PdfRenderer无法并行渲染，见类注释
+    static final int MAX_POOL_SIZE = 1;
+
+    private final PriorityBlockingQueue<RenderTask> mQueue = new PriorityBlockingQueue<>();
+    //排队和执行中的请求，用于合并相同key
+    private final Map<Object, RenderTask> mTasks = new HashMap<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final RenderThread[] mThreads;
+    //同时工作的渲染线程数，超出的线程空闲等待
+    private final Object mParallelismLock = new Object();
+    private int mParallelism;
+    private long mSequence;
+    private volatile boolean isShutdown;
+
+    /**
+     * 单个渲染线程
+     *
+     * @param renderer       渲染线程接管renderer，之后不能在其他线程使用
+     * @param fileDescriptor renderer关闭后由渲染线程关闭
+     */
+    public PdfRenderScheduler(PdfRenderer renderer, ParcelFileDescriptor fileDescriptor) {
+        this(renderer, fileDescriptor, 1);
+    }
+
+    /**
+     * 渲染池
+     *
+     * @param poolSize 渲染线程数，不超过{@link #MAX_POOL_SIZE}（目前为1），第一个线程使用传入的renderer，
+     *                 其余线程在dup的文件描述符上打开自己的renderer，dup失败时减少线程数
+     */
+    public PdfRenderScheduler(PdfRenderer renderer, ParcelFileDescriptor fileDescriptor, int poolSize) {
+        poolSize = fileDescriptor == null ? 1 : Math.max(1, Math.min(MAX_POOL_SIZE, poolSize));
+        List<RenderThread> threads = new ArrayList<>(poolSize);
+        threads.add(new RenderThread(0, renderer, fileDescriptor));
+        for (int i = 1; i < poolSize; i++) {
+            try {
+                threads.add(new RenderThread(i, null, fileDescriptor.dup()));
+            } catch (IOException e) {
+                Log.w(TAG, "dup file descriptor failed, pool size " + i, e);
+                break;
+            }
+        }
+        mThreads = threads.toArray(new RenderThread[threads.size()]);
+        mParallelism = mThreads.length;
+        for (RenderThread thread : mThreads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * 默认的渲染池大小，按处理器数的一半，给主线程和RenderThread留出核心，内存紧张时只用一个；
+     * 不超过{@link #MAX_POOL_SIZE}，目前总是1
+     */
+    public static int defaultPoolSize() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return parallelismFor(Math.min(MAX_POOL_SIZE, Math.max(1, processors / 2)),
+                RenderMemoryBudget.getInstance().getLevel());
+    }
+
+    /**
+     * 内存预算等级对应的并行数，每个并行的渲染同时持有一张待渲染的bitmap
+     */
+    public static int parallelismFor(int poolSize, int budgetLevel) {
+        if (budgetLevel >= RenderMemoryBudget.LEVEL_NO_CACHE) {
+            return 1;
+        }
+        if (budgetLevel >= RenderMemoryBudget.LEVEL_NO_PREFETCH) {
+            return Math.max(1, poolSize / 2);
+        }
+        return Math.max(1, poolSize);
+    }
+
+    /**
+     * 渲染线程数
+     */
+    public int getPoolSize() {
+        return mThreads.length;
+    }
+
+    /**
+     * 限制同时工作的渲染线程数，超出的线程处理完当前请求后空闲，renderer保持打开
+     */
+    public void setParallelism(int parallelism) {
+        synchronized (mParallelismLock) {
+            mParallelism = Math.max(1, Math.min(mThreads.length, parallelism));
+            mParallelismLock.notifyAll();
+        }
+    }
+
+    public int getParallelism() {
+        synchronized (mParallelismLock) {
+            return mParallelism;
+        }
+    }
+
+    /**
+     * 提交渲染请求，已经存在相同key的请求时，提升原请求优先级、合并回调并返回原请求
+     */
+    public RenderTask submit(RenderTask task) {
+        synchronized (this) {
+            if (isShutdown) {
+                task.cancel();
+                finish(task, null);
+                return task;
+            }
+            if (task.mKey != null) {
+                RenderTask existing = mTasks.get(task.mKey);
+                if (existing != null && !existing.isCancelled()) {
+                    existing.merge(task);
+                    if (task.mPriority < existing.mPriority && mQueue.remove(existing)) {
+                        existing.mPriority = task.mPriority;
+                        mQueue.offer(existing);
+                    }
+                    return existing;
+                }
+                mTasks.put(task.mKey, task);
+            }
+            task.mSequence = mSequence++;
+            task.mSubmitTime = System.nanoTime();
+            //与shutdown的drainTo在同一把锁内，关闭后不会再有请求入队
+            mQueue.offer(task);
+        }
+        return task;
+    }
+
+    /**
+     * 提交并等待渲染完成，不能在渲染线程调用
+     *
+     * @return 实际执行的请求，被合并时为原请求，结果通过{@link RenderTask#getResult()}获取
+     */
+    public RenderTask renderAndWait(RenderTask task) {
+        if (isRenderThread(Thread.currentThread())) {
+            throw new IllegalStateException("renderAndWait called on render thread");
+        }
+        task = submit(task);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                task.mLatch.await();
+                break;
+            } catch (InterruptedException e) {
+                //还没开始的直接出队，已经开始的native渲染无法中断，必须等它结束才能归还bitmap
+                interrupted = true;
+                cancel(task);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return task;
+    }
+
+    /**
+     * 取消请求，还没开始的直接出队
+     */
+    public void cancel(RenderTask task) {
+        if (task == null) {
+            return;
+        }
+        task.cancel();
+        if (mQueue.remove(task)) {
+            finish(task, null);
+        }
+    }
+
+    /**
+     * 取消所有请求，渲染线程处理完当前请求后关闭renderer和文件
+     */
+    public void shutdown() {
+        List<RenderTask> pending = new ArrayList<>();
+        synchronized (this) {
+            if (isShutdown) {
+                return;
+            }
+            isShutdown = true;
+            mQueue.drainTo(pending);
+        }
+        for (RenderTask task : pending) {
+            task.cancel();
+            finish(task, null);
+        }
+        for (RenderThread thread : mThreads) {
+            thread.quit();
+        }
+    }
+
+    private boolean isRenderThread(Thread thread) {
+        for (RenderThread renderThread : mThreads) {
+            if (renderThread == thread) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 请求结束，在渲染线程或者取消的线程调用，回调统一切到主线程
+     */
+    private void finish(final RenderTask task, final Bitmap result) {
+        synchronized (this) {
+            if (task.mKey != null && mTasks.get(task.mKey) == task) {
+                mTasks.remove(task.mKey);
+            }
+            task.mResult = result;
+        }
+        task.mLatch.countDown();
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                task.deliver();
+            }
+        });
+    }
+
+    /**
+     * 渲染线程上的页面访问，同一时间只打开一个page，连续请求同一页时复用
+     * 渲染池中每个线程有自己的context，请求可能在任意一个线程执行
+     */
+    public static final class RenderContext {
+        private final PdfRenderer mRenderer;
+        private PdfRenderer.Page mCurrentPage;
+
+        private RenderContext(PdfRenderer renderer) {
+            this.mRenderer = renderer;
+        }
+
+        public int getPageCount() {
+            return mRenderer.getPageCount();
+        }
+
+        public PdfRenderer.Page openPage(int index) {
+            if (mCurrentPage != null) {
+                if (mCurrentPage.getIndex() == index) {
+                    return mCurrentPage;
+                }
+                mCurrentPage.close();
+                mCurrentPage = null;
+            }
+            if (index < 0 || index >= mRenderer.getPageCount()) {
+                return null;
+            }
+            return mCurrentPage = mRenderer.openPage(index);
+        }
+
+        private void close() {
+            if (mCurrentPage != null) {
+                mCurrentPage.close();
+                mCurrentPage = null;
+            }
+            mRenderer.close();
+        }
+    }
+
+    /**
+     * 渲染请求
+     */
+    public abstract static class RenderTask implements Comparable<RenderTask> {
+        private final Object mKey;
+        private volatile int mPriority;
+        private long mSequence;
+        private volatile boolean isCancelled;
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        private final List<OnRenderListener> mListeners = new ArrayList<>(1);
+        private volatile Bitmap mResult;
+        //提交、开始、结束渲染的时间，纳秒，0 没有发生
+        private volatile long mSubmitTime;
+        private volatile long mStartTime;
+        private volatile long mFinishTime;
+
+        /**
+         * @param key 相同key的请求会被合并，null 不合并
+         */
+        protected RenderTask(int priority, Object key) {
+            this.mPriority = priority;
+            this.mKey = key;
+        }
+
+        /**
+         * 在渲染线程执行
+         */
+        protected abstract Bitmap onRender(RenderContext context);
+
+        /**
+         * 被取消的请求已经渲染出的结果，默认放回复用池
+         */
+        protected void onDiscard(Bitmap result) {
+            BitmapPool.getInstance().put(result);
+        }
+
+        public RenderTask addOnRenderListener(OnRenderListener listener) {
+            synchronized (mListeners) {
+                mListeners.add(listener);
+            }
+            return this;
+        }
+
+        public void cancel() {
+            isCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return isCancelled;
+        }
+
+        public int getPriority() {
+            return mPriority;
+        }
+
+        /**
+         * 渲染结果，未完成或者被取消时返回null
+         */
+        public Bitmap getResult() {
+            return isCancelled ? null : mResult;
+        }
+
+        /**
+         * 排队等待的时间，纳秒，没有开始渲染时为0
+         */
+        public long getQueueWaitNanos() {
+            return mStartTime != 0 ? mStartTime - mSubmitTime : 0;
+        }
+
+        /**
+         * 渲染线程上执行的时间，纳秒，没有开始渲染时为0
+         */
+        public long getRenderNanos() {
+            return mStartTime != 0 && mFinishTime != 0 ? mFinishTime - mStartTime : 0;
+        }
+
+        private void merge(RenderTask other) {
+            synchronized (other.mListeners) {
+                synchronized (mListeners) {
+                    mListeners.addAll(other.mListeners);
+                }
+            }
+        }
+
+        private void deliver() {
+            List<OnRenderListener> listeners;
+            synchronized (mListeners) {
+                listeners = new ArrayList<>(mListeners);
+            }
+            if (isCancelled) {
+                if (mResult != null) {
+                    onDiscard(mResult);
+                }
+                for (OnRenderListener listener : listeners) {
+                    listener.onRenderCancelled(this);
+                }
+            } else {
+                for (OnRenderListener listener : listeners) {
+                    listener.onRenderComplete(this, mResult);
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(RenderTask o) {
+            if (mPriority != o.mPriority) {
+                return mPriority < o.mPriority ? -1 : 1;
+            }
+            return mSequence < o.mSequence ? -1 : (mSequence == o.mSequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * 渲染回调，主线程执行
+     */
+    public interface OnRenderListener {
+        void onRenderComplete(RenderTask task, Bitmap bitmap);
+
+        void onRenderCancelled(RenderTask task);
+    }
+
+    private class RenderThread extends Thread {
+        private final int mIndex;
+        private final ParcelFileDescriptor mFileDescriptor;
+        private RenderContext mContext;
+        private volatile boolean isQuit;
+
+        /**
+         * @param renderer null 在渲染线程上用fileDescriptor打开
+         */
+        RenderThread(int index, PdfRenderer renderer, ParcelFileDescriptor fileDescriptor) {
+            super(index == 0 ? "PdfRenderThread" : "PdfRenderThread-" + index);
+            this.mIndex = index;
+            this.mContext = renderer != null ? new RenderContext(renderer) : null;
+            this.mFileDescriptor = fileDescriptor;
+        }
+
+        void quit() {
+            isQuit = true;
+            interrupt();
+        }
+
+        /**
+         * 超出并行数时等待
+         *
+         * @return false 已经退出
+         */
+        private boolean awaitTurn() {
+            synchronized (mParallelismLock) {
+                while (!isQuit && mIndex >= mParallelism) {
+                    try {
+                        mParallelismLock.wait();
+                    } catch (InterruptedException e) {
+                        //quit时中断
+                    }
+                }
+            }
+            return !isQuit;
+        }
+
+        @Override
+        public void run() {
+            //后台优先级，渲染不和UI线程、RenderThread抢CPU
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            if (mContext == null && !isQuit) {
+                try {
+                    mContext = new RenderContext(new PdfRenderer(mFileDescriptor));
+                } catch (IOException | RuntimeException e) {
+                    //打开失败时这个线程退出，请求由其他线程处理
+                    Log.w(TAG, getName() + " open renderer failed", e);
+                }
+            }
+            while (mContext != null && awaitTurn()) {
+                RenderTask task;
+                try {
+                    task = mQueue.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                Bitmap result = null;
+                if (!task.isCancelled()) {
+                    task.mStartTime = System.nanoTime();
+                    try {
+                        result = task.onRender(mContext);
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "render failed", e);
+                    }
+                    task.mFinishTime = System.nanoTime();
+                }
+                finish(task, result);
+            }
+            if (mContext != null) {
+                mContext.close();
+            }
+            if (mFileDescriptor != null) {
+                try {
+                    mFileDescriptor.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -5,29 +5,89 @@ import android.content.Context;
 import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
+import android.graphics.PointF;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.pdf.PdfRenderer;
 import android.os.AsyncTask;
 import android.os.Build;
+import android.os.Process;
 import android.support.annotation.RequiresApi;
 import android.util.AttributeSet;
 import android.view.ViewTreeObserver;
 
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
 @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
 public class PdfScaleImageView extends ScaleImageView {
-    //补丁Biemap
+    //补丁、tile、整页的加载任务在专用线程上串行执行，渲染时阻塞等待渲染线程，不能占用AsyncTask的全局串行队列
+    private static final ExecutorService LOAD_EXECUTOR = Executors.newSingleThreadExecutor(new LoadThreadFactory("PdfLoad"));
+    //并行渲染tile时额外的worker
+    private static final ExecutorService TILE_WORKER_EXECUTOR = Executors.newCachedThreadPool(new LoadThreadFactory("PdfTileWorker"));
+
+    //补丁Biemap，与渲染时的视口一起保留，平移时按位移绘制，缩放变化后释放
     private Bitmap mPartBitmap;
+    private float mPartScale;
+    private final PointF mPartTranslate = new PointF();
+    private final Matrix mPartDrawMatrix = new Matrix();
+    //增量渲染在后台把旧补丁拷贝到新bitmap，拷贝期间旧补丁被替换或释放时由拷贝结束后放回复用池
+    private final Object mPartLock = new Object();
+    private Bitmap mPartCopySource;
+    private boolean isPartReleasePending;
+    //以下只在补丁任务的后台线程使用，补丁任务在LOAD_EXECUTOR上串行执行
+    private final Canvas mPartCopyCanvas = new Canvas();
+    private final Rect mPartClipX = new Rect();
+    private final Rect mPartClipY = new Rect();
+    private final Matrix mPartRenderMatrix = new Matrix();
+    //补丁、tile的渲染分辨率，绘制不流畅时降低
+    private float mPartResolution = 1f;
+    //当前补丁渲染时的分辨率
+    private float mPartBitmapResolution = 1f;
+    //增量渲染的区域超过整屏的这个比例时直接整屏渲染
+    private static final int MAX_INCREMENTAL_AREA_PERCENT = 60;
+    private boolean mIncrementalPartEnabled = true;
     //加载的callback
     private OnLoadPageCallback mLoadPageCallback;
     //缩放pdf来充满bitmap
     private float mPdfScale;
-    private RectF mDesRect;
-    private Rect mSrcRect;
 
     private LoadPartTask mLoadPartTask;
     private int mCurrentOrientation;
+    //显示的页码，补丁和tile按这一页渲染，加载线程读取
+    private volatile int mPageIndex = -1;
+
+    //分块渲染
+    private final PdfTileManager mTileManager = new PdfTileManager();
+    private boolean mTileEnabled;
+    private LoadTileTask mLoadTileTask;
+    //同时渲染的tile数，与渲染池大小一致
+    private int mTileParallelism = 1;
+
+    //动画开始时提前渲染的结束视口，动画结束时仍在渲染则不重复请求
+    private boolean isPrerendering;
+    private float mPrerenderScale;
+    private final PointF mPrerenderTranslate = new PointF();
+
+    //整页渲染完成之前显示的占位
+    private LoadPageTask mLoadPageTask;
+    private Bitmap mPlaceholderBitmap;
+    private int mPlaceholderColor = Color.WHITE;
+    private RectF mPlaceholderRect;
+
+    //视口代数，视口每次变化加一，渲染结果的代数不是最新时丢弃
+    private volatile int mViewportGeneration;
+    //底图代数，换页时加一，tile与视口无关，只在换页后过期
+    private int mSourceGeneration;
+    private int mUsefulRenderCount;
+    private int mWastedRenderCount;
+    private int mSkippedRenderCount;
 
     public PdfScaleImageView(Context context, AttributeSet attr) {
         super(context, attr);
@@ -45,27 +105,92 @@ public class PdfScaleImageView extends ScaleImageView {
     }
 
     @Override
-    protected boolean subDraw(Canvas canvas) {
-        if (mPartBitmap != null && getAnim() == null) {
-            //绘制清晰的补丁，绘制完释放
-            if (mDesRect == null) {
-                mDesRect = new RectF(0, 0, getWidth(), getHeight());
-            }
+    protected void drawEmpty(Canvas canvas) {
+        if (getSourceBitmap() == null && getWidth() > 0 && getHeight() > 0) {
+            drawPlaceholder(canvas);
+        }
+    }
 
-            if (mSrcRect == null) {
-                mSrcRect = new Rect(0, 0, mPartBitmap.getWidth(), mPartBitmap.getHeight());
-            } else {
-                mSrcRect.set(0, 0, mPartBitmap.getWidth(), mPartBitmap.getHeight());
+    @Override
+    protected boolean subDraw(Canvas canvas) {
+        if (mTileEnabled) {
+            //分块模式，先绘制底图，再绘制已经渲染好的清晰tile
+            drawBitmap(canvas);
+            mTileManager.draw(canvas, getScale(), getTranslate(), getWidth(), getHeight(), getBitmapPaint());
+            return true;
+        }
+        if (mPartBitmap != null && !isPartScaleCurrent() && getAnim() == null) {
+            //缩放变化后补丁不再清晰，动画过程中可能是为结束视口提前渲染的补丁，保留到动画结束
+            setPartBitmap(null);
+        }
+        if (mPartBitmap != null && isPartScaleCurrent()) {
+            //绘制清晰的补丁，视口平移过时先绘制底图补齐露出的区域
+            float dx = getTranslate().x - mPartTranslate.x;
+            float dy = getTranslate().y - mPartTranslate.y;
+            if (dx != 0 || dy != 0) {
+                drawBitmap(canvas);
             }
-            canvas.drawBitmap(mPartBitmap, mSrcRect, mDesRect, getBitmapPaint());
-            mPartBitmap.recycle();
-            mPartBitmap = null;
+            mPartDrawMatrix.setScale(1 / mPartBitmapResolution, 1 / mPartBitmapResolution);
+            mPartDrawMatrix.postTranslate(dx, dy);
+            canvas.drawBitmap(mPartBitmap, mPartDrawMatrix, getBitmapPaint());
             //跳过父类draw
             return true;
         }
         return false;
     }
 
+    /**
+     * 缩略图按页面比例居中显示，没有缩略图时填充纯色
+     */
+    private void drawPlaceholder(Canvas canvas) {
+        if (mPlaceholderBitmap == null || mPlaceholderBitmap.isRecycled()) {
+            canvas.drawColor(mPlaceholderColor);
+            return;
+        }
+        float scale = computePdfScale(getWidth(), getHeight(),
+                mPlaceholderBitmap.getWidth(), mPlaceholderBitmap.getHeight(), mCurrentOrientation);
+        float width = mPlaceholderBitmap.getWidth() * scale;
+        float height = mPlaceholderBitmap.getHeight() * scale;
+        float left = (getWidth() - width) / 2;
+        //横屏时页面置顶
+        float top = mCurrentOrientation == Configuration.ORIENTATION_LANDSCAPE ? 0 : (getHeight() - height) / 2;
+        if (mPlaceholderRect == null) {
+            mPlaceholderRect = new RectF();
+        }
+        mPlaceholderRect.set(left, top, left + width, top + height);
+        canvas.drawBitmap(mPlaceholderBitmap, null, mPlaceholderRect, getBitmapPaint());
+    }
+
+    /**
+     * 设置整页渲染完成前显示的占位
+     *
+     * @param thumbnail 缓存的缩略图，null 使用纯色
+     */
+    public void setPlaceholder(Bitmap thumbnail) {
+        mPlaceholderBitmap = thumbnail;
+        if (getSourceBitmap() == null) {
+            invalidate();
+        }
+    }
+
+    /**
+     * 显示的页码，补丁、tile渲染时使用，-1 未设置
+     */
+    public void setPageIndex(int pageIndex) {
+        mPageIndex = pageIndex;
+    }
+
+    public int getPageIndex() {
+        return mPageIndex;
+    }
+
+    public void setPlaceholderColor(int color) {
+        mPlaceholderColor = color;
+        if (getSourceBitmap() == null) {
+            invalidate();
+        }
+    }
+
     @Override
     protected void onNoAnimUpEvent() {
         //手指离开时，没有触发动画，应该加载高清补丁
@@ -78,14 +203,76 @@ public class PdfScaleImageView extends ScaleImageView {
         cancelLoadTask();
     }
 
+    /**
+     * 动画开始时已经知道结束视口，直接渲染结束视口的补丁或tile，动画结束时就是清晰的
+     */
+    @Override
+    protected void onAnimationStarted() {
+        PointF translate = getAnimationEndTranslate();
+        if (getSourceBitmap() == null || translate == null) {
+            cancelLoadTask();
+            return;
+        }
+        mPrerenderScale = getAnimationEndScale();
+        mPrerenderTranslate.set(translate);
+        loadPart(mPrerenderScale, mPrerenderTranslate, false);
+        isPrerendering = true;
+    }
+
+    /**
+     * 补丁的缩放比与当前一致，动画最后一帧的缩放比由差值计算，允许浮点误差
+     */
+    private boolean isPartScaleCurrent() {
+        return isScaleEqual(mPartScale, getScale());
+    }
+
+    private static boolean isScaleEqual(float a, float b) {
+        return Math.abs(a - b) <= Math.max(a, b) * 1e-4f;
+    }
+
+    /**
+     * 渲染请求的视口是否仍是当前视口，可以在任意线程调用
+     */
+    public boolean isViewportCurrent(int generation) {
+        return generation == mViewportGeneration;
+    }
+
+    /**
+     * 完成后被使用的渲染次数
+     */
+    public int getUsefulRenderCount() {
+        return mUsefulRenderCount;
+    }
+
+    /**
+     * 完成后视口已经变化被丢弃的渲染次数
+     */
+    public int getWastedRenderCount() {
+        return mWastedRenderCount;
+    }
+
+    /**
+     * 开始前视口已经变化被跳过的渲染次数
+     */
+    public int getSkippedRenderCount() {
+        return mSkippedRenderCount;
+    }
+
+    @Override
+    protected void releaseTiles() {
+        super.releaseTiles();
+        if (mTileEnabled && mTileManager.getSize() > 0) {
+            mTileManager.clear();
+            loadPart();
+            invalidate();
+        }
+    }
+
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
-        if (mDesRect == null) {
-            mDesRect = new RectF(0, 0, getWidth(), getHeight());
-        } else {
-            mDesRect.set(0, 0, getWidth(), getHeight());
-        }
+        releasePart();
+        mTileManager.setViewSize(w, h);
         int orientation = getContext().getResources().getConfiguration().orientation;
         if (mCurrentOrientation != orientation) {
             mCurrentOrientation = orientation;
@@ -109,21 +296,33 @@ public class PdfScaleImageView extends ScaleImageView {
         }
     }
 
-    /*加载pdf*/
+    /**
+     * 加载pdf，在后台线程渲染，完成前显示占位，渲染完成前不能关闭page
+     */
     @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-    public void showPdfPage(final PdfRenderer.Page page) {
+    public void showPdfPage(PdfRenderer.Page page) {
+        showPdfPage(page, null);
+    }
+
+    /**
+     * 加载pdf，在后台线程渲染，完成前显示占位
+     *
+     * @param listener 渲染完成或者被取消后在主线程回调，之后才可以关闭page
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public void showPdfPage(final PdfRenderer.Page page, final OnPageRenderListener listener) {
         if (page == null) {
             return;
         }
         if (getWidth() != 0 && getHeight() != 0) {
-            setPdfBitmap(page);
+            setPdfBitmap(page, listener);
         } else {
             getViewTreeObserver().addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
                 @Override
                 public void onGlobalLayout() {
                     if (getHeight() > 0 && getWidth() > 0) {
                         getViewTreeObserver().removeOnGlobalLayoutListener(this);
-                        setPdfBitmap(page);
+                        setPdfBitmap(page, listener);
                     }
                 }
             });
@@ -133,31 +332,94 @@ public class PdfScaleImageView extends ScaleImageView {
     @Override
     public void reset(boolean newImage) {
         super.reset(newImage);
+        releasePart();
+        if (newImage) {
+            mSourceGeneration++;
+            cancelLoadTask();
+            if (mLoadPageTask != null) {
+                mLoadPageTask.cancel(false);
+                mLoadPageTask = null;
+            }
+            mTileManager.clear();
+        }
         invalidate();
     }
 
-    private void setPdfBitmap(PdfRenderer.Page page) {
+    /**
+     * 是否使用分块渲染高清内容，默认关闭，使用整屏补丁
+     */
+    public void setTileRenderingEnabled(boolean enabled) {
+        if (mTileEnabled == enabled) {
+            return;
+        }
+        cancelLoadTask();
+        mTileManager.clear();
+        mTileEnabled = enabled;
+        invalidate();
+    }
+
+    /**
+     * 同时请求渲染的tile数，渲染池有多个线程时tile可以并行渲染
+     */
+    public void setTileParallelism(int parallelism) {
+        mTileParallelism = Math.max(1, parallelism);
+    }
+
+    private void setPdfBitmap(PdfRenderer.Page page, OnPageRenderListener listener) {
         if (page == null) {
             return;
         }
+        if (mLoadPageTask != null) {
+            mLoadPageTask.cancel(false);
+        }
         //PDF缩放
-        mPdfScale = getPdfScale(page);
-        int pdfBitmapWidth = (int) (page.getWidth() * mPdfScale);
-        int pdfBitmapHeight = (int) (page.getHeight() * mPdfScale);
+        float pdfScale = getPdfScale(page.getWidth(), page.getHeight());
+        mLoadPageTask = new LoadPageTask(page, pdfScale, listener);
+        mLoadPageTask.executeOnExecutor(LOAD_EXECUTOR);
+    }
+
+    /**
+     * 按缩放比渲染整页
+     */
+    public static Bitmap renderPdfPage(PdfRenderer.Page page, float pdfScale) {
+        int pdfBitmapWidth = (int) (page.getWidth() * pdfScale);
+        int pdfBitmapHeight = (int) (page.getHeight() * pdfScale);
         Matrix matrix = new Matrix();
-        matrix.postScale(mPdfScale, mPdfScale);
-        Bitmap bitmap = Bitmap.createBitmap(pdfBitmapWidth, pdfBitmapHeight, Bitmap.Config.ARGB_8888);
+        matrix.postScale(pdfScale, pdfScale);
+        Bitmap bitmap = BitmapPool.getInstance().get(pdfBitmapWidth, pdfBitmapHeight, Bitmap.Config.ARGB_8888);
         page.render(bitmap, null, matrix, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
-        setImageBitmap(bitmap);
+        return bitmap;
     }
 
-    private float getPdfScale(PdfRenderer.Page page) {
-        float iWidth = getWidth();
-        float iHeight = getHeight();
-        float pWidth = page.getWidth();
-        float pHeight = page.getHeight();
+    /**
+     * 显示已经渲染好的页面
+     *
+     * @param pdfScale 渲染时使用的缩放比
+     * @param shared   true 页面由外部缓存持有，reset时不会放回复用池
+     */
+    public void showPdfBitmap(Bitmap bitmap, float pdfScale, boolean shared) {
+        if (bitmap == null) {
+            return;
+        }
+        mPdfScale = pdfScale;
+        mPlaceholderBitmap = null;
+        setImageBitmap(bitmap, shared);
+        mTileManager.setSourceSize(bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    /**
+     * 页面充满view的缩放比
+     */
+    public float getPdfScale(float pWidth, float pHeight) {
+        return computePdfScale(getWidth(), getHeight(), pWidth, pHeight, mCurrentOrientation);
+    }
+
+    /**
+     * 页面充满指定尺寸的缩放比，不依赖view，可以在渲染线程计算
+     */
+    public static float computePdfScale(float iWidth, float iHeight, float pWidth, float pHeight, int orientation) {
         float scale;
-        if (mCurrentOrientation == Configuration.ORIENTATION_PORTRAIT) {
+        if (orientation == Configuration.ORIENTATION_PORTRAIT) {
             //竖屏缩放取最小
             scale = Math.min((iWidth / pWidth), (iHeight / pHeight));
         } else {
@@ -172,24 +434,169 @@ public class PdfScaleImageView extends ScaleImageView {
         if (getTranslate() == null) {
             return;
         }
+        loadPart(getScale(), getTranslate(), mIncrementalPartEnabled);
+    }
+
+    /**
+     * 加载指定视口的补丁或tile，之前的请求过期
+     */
+    private void loadPart(float scale, PointF translate, boolean incremental) {
         cancelLoadTask();
+        if (mTileEnabled) {
+            //只加载新进入视口的tile
+            //分辨率降低时按低一些的层级加载，绘制时作为祖先补位
+            List<PdfTileManager.Tile> tiles = mTileManager.collectMissingTiles(scale * mPartResolution,
+                    translate, getWidth(), getHeight());
+            if (!tiles.isEmpty()) {
+                mLoadTileTask = new LoadTileTask(tiles, mViewportGeneration, mSourceGeneration, mTileParallelism);
+                mLoadTileTask.executeOnExecutor(LOAD_EXECUTOR);
+            }
+            return;
+        }
+        if (incremental && loadPartIncrementally()) {
+            return;
+        }
         //加载补丁
-        mLoadPartTask = new LoadPartTask();
-        mLoadPartTask.execute();
+        mLoadPartTask = new LoadPartTask(mViewportGeneration, scale, translate.x, translate.y, null, 0, 0, mPartResolution);
+        mLoadPartTask.executeOnExecutor(LOAD_EXECUTOR);
+    }
+
+    /**
+     * 缩放不变的小幅平移，复用已有补丁：在后台按位移拷贝到新bitmap，只渲染新露出的L形区域
+     *
+     * @return false 不满足条件，需要整屏渲染
+     */
+    private boolean loadPartIncrementally() {
+        if (mPartBitmap == null || !isPartScaleCurrent() || mPartBitmapResolution != 1f || mPartResolution != 1f) {
+            return false;
+        }
+        int width = getWidth();
+        int height = getHeight();
+        //取整位移，新补丁对应的视口为原视口加整数位移，与当前视口的小数差在绘制时补偿
+        int dx = Math.round(getTranslate().x - mPartTranslate.x);
+        int dy = Math.round(getTranslate().y - mPartTranslate.y);
+        if (dx == 0 && dy == 0) {
+            return true;
+        }
+        int stripX = Math.abs(dx);
+        int stripY = Math.abs(dy);
+        if (stripX >= width || stripY >= height
+                || (long) stripX * height + (long) stripY * (width - stripX) > (long) width * height * MAX_INCREMENTAL_AREA_PERCENT / 100) {
+            return false;
+        }
+        mLoadPartTask = new LoadPartTask(mViewportGeneration, getScale(), mPartTranslate.x + dx, mPartTranslate.y + dy,
+                mPartBitmap, dx, dy, 1f);
+        mLoadPartTask.executeOnExecutor(LOAD_EXECUTOR);
+        return true;
+    }
+
+    /**
+     * 替换当前补丁，旧补丁正在被后台拷贝时等拷贝结束再放回复用池
+     */
+    private void setPartBitmap(Bitmap bitmap) {
+        synchronized (mPartLock) {
+            if (mPartBitmap != null && mPartBitmap != bitmap) {
+                if (mPartBitmap == mPartCopySource) {
+                    isPartReleasePending = true;
+                } else {
+                    BitmapPool.getInstance().put(mPartBitmap);
+                }
+            }
+            mPartBitmap = bitmap;
+        }
     }
 
+    /**
+     * 后台线程把旧补丁按位移拷贝到新bitmap
+     *
+     * @return false 旧补丁已经被替换，不能再读取
+     */
+    private boolean copyPart(Bitmap from, Bitmap to, int dx, int dy) {
+        synchronized (mPartLock) {
+            if (from != mPartBitmap) {
+                return false;
+            }
+            mPartCopySource = from;
+        }
+        mPartCopyCanvas.setBitmap(to);
+        mPartCopyCanvas.drawBitmap(from, dx, dy, null);
+        mPartCopyCanvas.setBitmap(null);
+        synchronized (mPartLock) {
+            mPartCopySource = null;
+            if (isPartReleasePending) {
+                isPartReleasePending = false;
+                BitmapPool.getInstance().put(from);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 补丁、tile的渲染分辨率，0.25 ~ 1，下一次加载时生效。低于1时补丁放大绘制，不做增量渲染
+     */
+    public void setPartResolution(float resolution) {
+        mPartResolution = Math.max(0.25f, Math.min(1f, resolution));
+    }
+
+    /**
+     * 平移后只渲染新露出的区域，默认开启
+     */
+    public void setIncrementalPartEnabled(boolean enabled) {
+        mIncrementalPartEnabled = enabled;
+    }
+
+    /**
+     * 视口变化，之前的渲染请求全部过期。正在执行的native渲染无法中断，
+     * 排队中的请求开始前发现过期直接跳过，已经完成的结果在主线程丢弃
+     */
     private void cancelLoadTask() {
-        if (mLoadPartTask != null && !mLoadPartTask.isCancelled()) {
-            mLoadPartTask.cancel(true);
+        mViewportGeneration++;
+        isPrerendering = false;
+        if (mLoadPartTask != null) {
+            mLoadPartTask.cancel(false);
+            mLoadPartTask = null;
+        }
+        //tile任务不取消，已经完成的tile仍然有效，剩下的tile发现视口过期后不再渲染
+        mLoadTileTask = null;
+    }
+
+    /**
+     * 释放保留的补丁，视口缩放变化、换页或者内存紧张时调用
+     */
+    public void releasePart() {
+        if (mPartBitmap != null) {
+            setPartBitmap(null);
+            invalidate();
         }
     }
 
     //缩放 fling动画停止后加载part
     @Override
     protected void onAnimationFinished() {
+        if (isPrerenderCurrent()) {
+            //结束视口的渲染还在进行，完成后直接使用
+            return;
+        }
         loadPart();
     }
 
+    /**
+     * 动画开始时提前渲染的视口就是当前视口，并且还在渲染或者补丁已经就绪
+     */
+    private boolean isPrerenderCurrent() {
+        PointF translate = getTranslate();
+        if (!isPrerendering || translate == null || !isScaleEqual(mPrerenderScale, getScale())
+                || Math.abs(mPrerenderTranslate.x - translate.x) >= 0.5f
+                || Math.abs(mPrerenderTranslate.y - translate.y) >= 0.5f) {
+            return false;
+        }
+        if (mLoadPartTask != null || mLoadTileTask != null) {
+            return true;
+        }
+        //tile模式再检查一次缺失的tile，补丁模式下补丁已经就绪
+        return !mTileEnabled && mPartBitmap != null && isPartScaleCurrent();
+    }
+
     public void setOnLoadPageCallback(OnLoadPageCallback callback) {
         this.mLoadPageCallback = callback;
     }
@@ -197,24 +604,241 @@ public class PdfScaleImageView extends ScaleImageView {
     /**
      * 加载part的asyncTask
      */
-    private class LoadPartTask extends AsyncTask<Float, Void, Bitmap> {
+    private class LoadPartTask extends AsyncTask<Void, Void, Bitmap> {
+        private final int mGeneration;
+        private final float mScale;
+        private final float mTranslateX;
+        private final float mTranslateY;
+        private final float mPdfScale;
+        //增量渲染时复用的旧补丁和整数位移，null 整屏渲染
+        private final Bitmap mFrom;
+        private final int mDx;
+        private final int mDy;
+        private final float mResolution;
+        private boolean isRendered;
+
+        LoadPartTask(int generation, float scale, float translateX, float translateY,
+                     Bitmap from, int dx, int dy, float resolution) {
+            this.mGeneration = generation;
+            this.mScale = scale;
+            this.mTranslateX = translateX;
+            this.mTranslateY = translateY;
+            this.mPdfScale = PdfScaleImageView.this.mPdfScale;
+            this.mFrom = from;
+            this.mDx = dx;
+            this.mDy = dy;
+            this.mResolution = resolution;
+        }
 
         @Override
-        protected Bitmap doInBackground(Float... floats) {
-            if (mLoadPageCallback == null || isCancelled()) {
+        protected Bitmap doInBackground(Void... voids) {
+            if (mLoadPageCallback == null || !isViewportCurrent(mGeneration)) {
                 return null;
             }
-            Bitmap partBitmap = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
-            mLoadPageCallback.onLoad(PdfScaleImageView.this, partBitmap, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
-            return partBitmap;
+            Matrix matrix = getPartMatrix(mPartRenderMatrix, mPdfScale, mScale, mTranslateX, mTranslateY);
+            matrix.postScale(mResolution, mResolution);
+            int width = getWidth();
+            int height = getHeight();
+            if (mFrom == null) {
+                Bitmap partBitmap = BitmapPool.getInstance().get(Math.max(1, Math.round(width * mResolution)),
+                        Math.max(1, Math.round(height * mResolution)), Bitmap.Config.ARGB_8888);
+                isRendered = mLoadPageCallback.onLoad(PdfScaleImageView.this, partBitmap, null, matrix,
+                        mGeneration, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
+                return partBitmap;
+            }
+            Bitmap bitmap = BitmapPool.getInstance().get(width, height, Bitmap.Config.ARGB_8888);
+            if (!copyPart(mFrom, bitmap, mDx, mDy)) {
+                return bitmap;
+            }
+            //新露出的L形区域：左右的竖条和除去竖条之后上下的横条
+            if (mDx != 0) {
+                if (mDx > 0) {
+                    mPartClipX.set(0, 0, mDx, height);
+                } else {
+                    mPartClipX.set(width + mDx, 0, width, height);
+                }
+                isRendered = mLoadPageCallback.onLoad(PdfScaleImageView.this, bitmap, mPartClipX, matrix,
+                        mGeneration, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
+                if (!isRendered) {
+                    return bitmap;
+                }
+            }
+            if (mDy != 0) {
+                int left = mDx > 0 ? mDx : 0;
+                int right = mDx < 0 ? width + mDx : width;
+                if (mDy > 0) {
+                    mPartClipY.set(left, 0, right, mDy);
+                } else {
+                    mPartClipY.set(left, height + mDy, right, height);
+                }
+                isRendered = mLoadPageCallback.onLoad(PdfScaleImageView.this, bitmap, mPartClipY, matrix,
+                        mGeneration, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
+            }
+            return bitmap;
+        }
+
+        @Override
+        protected void onCancelled(Bitmap bitmap) {
+            onPostExecute(bitmap);
         }
 
         @Override
         protected void onPostExecute(Bitmap bitmap) {
-            mPartBitmap = bitmap;
-            if (mPartBitmap != null) {
-                invalidate();
+            if (mLoadPartTask == this) {
+                mLoadPartTask = null;
             }
+            if (!isRendered || !isViewportCurrent(mGeneration)) {
+                //过期的补丁放回复用池
+                if (isRendered) {
+                    mWastedRenderCount++;
+                } else {
+                    mSkippedRenderCount++;
+                }
+                BitmapPool.getInstance().put(bitmap);
+                return;
+            }
+            mUsefulRenderCount++;
+            setPartBitmap(bitmap);
+            mPartBitmapResolution = mResolution;
+            mPartScale = mScale;
+            mPartTranslate.set(mTranslateX, mTranslateY);
+            invalidate();
+        }
+    }
+
+    /**
+     * 整页渲染的asyncTask
+     */
+    private class LoadPageTask extends AsyncTask<Void, Void, Bitmap> {
+        private final PdfRenderer.Page mPage;
+        private final float mScale;
+        private final OnPageRenderListener mListener;
+
+        LoadPageTask(PdfRenderer.Page page, float scale, OnPageRenderListener listener) {
+            this.mPage = page;
+            this.mScale = scale;
+            this.mListener = listener;
+        }
+
+        @Override
+        protected Bitmap doInBackground(Void... voids) {
+            if (isCancelled()) {
+                return null;
+            }
+            return renderPdfPage(mPage, mScale);
+        }
+
+        @Override
+        protected void onCancelled(Bitmap bitmap) {
+            //doInBackground已经返回或者没有开始，不会再使用page
+            BitmapPool.getInstance().put(bitmap);
+            if (mListener != null) {
+                mListener.onPageRenderFinished(mPage);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap bitmap) {
+            if (mLoadPageTask == this) {
+                mLoadPageTask = null;
+            }
+            showPdfBitmap(bitmap, mScale, false);
+            if (mListener != null) {
+                mListener.onPageRenderFinished(mPage);
+            }
+        }
+    }
+
+    /**
+     * 加载tile的asyncTask，每完成一个就刷新一次
+     * 并行数大于1时另外在线程池上启动几个worker从同一个列表取tile，全部结束后任务才结束
+     */
+    private class LoadTileTask extends AsyncTask<Void, PdfTileManager.Tile, Void> {
+        private final List<PdfTileManager.Tile> mTiles;
+        private final int mGeneration;
+        private final int mSource;
+        private final int mParallelism;
+        //下一个要渲染的tile
+        private final AtomicInteger mNext = new AtomicInteger();
+
+        LoadTileTask(List<PdfTileManager.Tile> tiles, int generation, int source, int parallelism) {
+            this.mTiles = tiles;
+            this.mGeneration = generation;
+            this.mSource = source;
+            this.mParallelism = parallelism;
+        }
+
+        @Override
+        protected Void doInBackground(Void... voids) {
+            int workers = Math.min(mParallelism, mTiles.size());
+            final CountDownLatch latch = new CountDownLatch(workers - 1);
+            for (int i = 1; i < workers; i++) {
+                TILE_WORKER_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            loadTiles();
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                });
+            }
+            loadTiles();
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    latch.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+
+        private void loadTiles() {
+            //每个worker一个，渲染回调同步使用完才返回，可以在下一个tile复用
+            Matrix matrix = new Matrix();
+            int index;
+            while ((index = mNext.getAndIncrement()) < mTiles.size()) {
+                if (mLoadPageCallback == null || !isViewportCurrent(mGeneration)) {
+                    break;
+                }
+                PdfTileManager.Tile tile = mTiles.get(index);
+                Bitmap tileBitmap = BitmapPool.getInstance().get(PdfTileManager.TILE_SIZE, PdfTileManager.TILE_SIZE, Bitmap.Config.ARGB_8888);
+                if (!mLoadPageCallback.onLoadTile(PdfScaleImageView.this, tileBitmap, getTileMatrix(tile, matrix),
+                        mGeneration, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY)) {
+                    BitmapPool.getInstance().put(tileBitmap);
+                    //其他worker也停止
+                    mNext.set(mTiles.size());
+                    break;
+                }
+                tile.bitmap = tileBitmap;
+                publishProgress(tile);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            if (mLoadTileTask == this) {
+                mLoadTileTask = null;
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(PdfTileManager.Tile... tiles) {
+            if (mSource != mSourceGeneration || !mTileEnabled) {
+                mWastedRenderCount++;
+                BitmapPool.getInstance().put(tiles[0].bitmap);
+                return;
+            }
+            mUsefulRenderCount++;
+            mTileManager.putTile(tiles[0]);
+            invalidate();
         }
     }
 
@@ -222,14 +846,88 @@ public class PdfScaleImageView extends ScaleImageView {
      * 获取part的matrix
      */
     public Matrix getPartMatrix() {
-        Matrix matrix = new Matrix();
+        return getPartMatrix(new Matrix(), mPdfScale, getScale(), getTranslate().x, getTranslate().y);
+    }
+
+    /**
+     * 获取part的matrix，写入传入的matrix，避免分配
+     */
+    public Matrix getPartMatrix(Matrix matrix) {
+        return getPartMatrix(matrix, mPdfScale, getScale(), getTranslate().x, getTranslate().y);
+    }
+
+    private static Matrix getPartMatrix(Matrix matrix, float pdfScale, float scale, float translateX, float translateY) {
+        matrix.reset();
+        matrix.postScale(pdfScale, pdfScale);
+        matrix.postScale(scale, scale);
+        matrix.postTranslate(translateX, translateY);
+        return matrix;
+    }
+
+    /**
+     * 获取tile的matrix，与{@link #getPartMatrix()}同理，缩放取tile所在层级，位移取tile在该层级的偏移
+     */
+    public Matrix getTileMatrix(PdfTileManager.Tile tile) {
+        return getTileMatrix(tile, new Matrix());
+    }
+
+    /**
+     * 获取tile的matrix，写入传入的matrix，避免分配
+     */
+    public Matrix getTileMatrix(PdfTileManager.Tile tile, Matrix matrix) {
+        int levelScale = 1 << tile.level;
+        matrix.reset();
         matrix.postScale(mPdfScale, mPdfScale);
-        matrix.postScale(getScale(), getScale());
-        matrix.postTranslate(getTranslate().x, getTranslate().y);
+        matrix.postScale(levelScale, levelScale);
+        matrix.postTranslate(-tile.col * PdfTileManager.TILE_SIZE, -tile.row * PdfTileManager.TILE_SIZE);
         return matrix;
     }
 
+    /**
+     * 加载线程，后台优先级
+     */
+    private static class LoadThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        LoadThreadFactory(String name) {
+            this.mName = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, mName + "-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * {@link #showPdfPage(PdfRenderer.Page, OnPageRenderListener)}的渲染结束回调，主线程执行
+     */
+    public interface OnPageRenderListener {
+        /**
+         * 渲染完成或者被取消，page不再被使用，可以关闭
+         */
+        void onPageRenderFinished(PdfRenderer.Page page);
+    }
+
     public interface OnLoadPageCallback {
-        void onLoad(PdfScaleImageView imageView, Bitmap bitmap, int renderMode);
+        /**
+         * 在后台线程渲染补丁
+         *
+         * @param clip       只渲染bitmap中的这个区域，null 整个bitmap
+         * @param generation 请求时的视口代数，过期时可以直接跳过，见{@link #isViewportCurrent(int)}
+         * @return 是否渲染了bitmap
+         */
+        boolean onLoad(PdfScaleImageView imageView, Bitmap bitmap, Rect clip, Matrix matrix, int generation, int renderMode);
+
+        boolean onLoadTile(PdfScaleImageView imageView, Bitmap bitmap, Matrix matrix, int generation, int renderMode);
     }
 }
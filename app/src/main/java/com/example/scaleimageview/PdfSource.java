@@ -0,0 +1,180 @@
+package com.example.scaleimageview;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.RequiresApi;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * pdf文档来源
+ * PdfRenderer需要可以随机读取、从文件开头开始的文件描述符。文件、可以直接打开的content uri
+ * 直接使用原来的描述符；管道、apk中的asset等只能顺序读取或者带偏移的来源，
+ * 分块复制到应用缓存目录的临时文件，以只读方式打开后立即删除，文件在描述符关闭后由系统回收，不需要存储权限。
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public abstract class PdfSource {
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final String mDocumentId;
+
+    private PdfSource(String documentId) {
+        this.mDocumentId = documentId;
+    }
+
+    /**
+     * 文档标识，用于区分缓存中不同文档的页面
+     */
+    public String getDocumentId() {
+        return mDocumentId;
+    }
+
+    /**
+     * 打开文档，需要复制时耗时与文档大小成正比，不能在主线程调用。每个来源只能打开一次
+     *
+     * @return 可以随机读取的描述符，由调用方关闭
+     */
+    public abstract ParcelFileDescriptor open(Context context) throws IOException;
+
+    public static PdfSource fromFile(final String path) {
+        return new PdfSource(path) {
+            @Override
+            public ParcelFileDescriptor open(Context context) throws IOException {
+                return ParcelFileDescriptor.open(new File(path), ParcelFileDescriptor.MODE_READ_ONLY);
+            }
+        };
+    }
+
+    /**
+     * content、file、android.resource uri
+     */
+    public static PdfSource fromUri(final Uri uri) {
+        return new PdfSource(uri.toString()) {
+            @Override
+            public ParcelFileDescriptor open(Context context) throws IOException {
+                if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+                    return ParcelFileDescriptor.open(new File(uri.getPath()), ParcelFileDescriptor.MODE_READ_ONLY);
+                }
+                ContentResolver resolver = context.getContentResolver();
+                ParcelFileDescriptor fileDescriptor = resolver.openFileDescriptor(uri, "r");
+                if (fileDescriptor != null && isSeekable(fileDescriptor)) {
+                    return fileDescriptor;
+                }
+                //provider通过管道提供数据
+                closeQuietly(fileDescriptor);
+                InputStream input = resolver.openInputStream(uri);
+                if (input == null) {
+                    throw new FileNotFoundException("can not open " + uri);
+                }
+                return copyToSealedFile(context, input);
+            }
+        };
+    }
+
+    /**
+     * 应用的asset，asset位于apk中间，PdfRenderer不能直接读取，总是分块复制
+     */
+    public static PdfSource fromAsset(final String assetName) {
+        return new PdfSource("asset:" + assetName) {
+            @Override
+            public ParcelFileDescriptor open(Context context) throws IOException {
+                return copyToSealedFile(context, context.getAssets().open(assetName));
+            }
+        };
+    }
+
+    /**
+     * @param assetFileDescriptor 所有权转移，打开后不能再使用
+     */
+    public static PdfSource fromAssetFileDescriptor(final AssetFileDescriptor assetFileDescriptor) {
+        return new PdfSource("fd:" + System.identityHashCode(assetFileDescriptor)) {
+            @Override
+            public ParcelFileDescriptor open(Context context) throws IOException {
+                return openAsset(context, assetFileDescriptor);
+            }
+        };
+    }
+
+    /**
+     * @param fileDescriptor 所有权转移，可以随机读取时直接使用，否则复制后关闭
+     */
+    public static PdfSource fromFileDescriptor(final ParcelFileDescriptor fileDescriptor) {
+        return new PdfSource("fd:" + System.identityHashCode(fileDescriptor)) {
+            @Override
+            public ParcelFileDescriptor open(Context context) throws IOException {
+                if (isSeekable(fileDescriptor)) {
+                    return fileDescriptor;
+                }
+                return copyToSealedFile(context, new ParcelFileDescriptor.AutoCloseInputStream(fileDescriptor));
+            }
+        };
+    }
+
+    /**
+     * 从文件开头开始、长度不限的描述符可以直接使用，
+     * 带偏移的(如apk中的asset)需要按偏移和长度复制出来
+     */
+    private static ParcelFileDescriptor openAsset(Context context, AssetFileDescriptor assetFileDescriptor) throws IOException {
+        if (assetFileDescriptor.getStartOffset() == 0
+                && assetFileDescriptor.getDeclaredLength() == AssetFileDescriptor.UNKNOWN_LENGTH
+                && isSeekable(assetFileDescriptor.getParcelFileDescriptor())) {
+            return assetFileDescriptor.getParcelFileDescriptor();
+        }
+        return copyToSealedFile(context, assetFileDescriptor.createInputStream());
+    }
+
+    private static boolean isSeekable(ParcelFileDescriptor fileDescriptor) {
+        try {
+            Os.lseek(fileDescriptor.getFileDescriptor(), 0, OsConstants.SEEK_CUR);
+            return true;
+        } catch (ErrnoException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 分块复制到临时文件，只读打开后删除文件，之后只能通过返回的描述符访问
+     *
+     * @param input 复制完成后关闭
+     */
+    static ParcelFileDescriptor copyToSealedFile(Context context, InputStream input) throws IOException {
+        File file = File.createTempFile("pdf", ".tmp", context.getCacheDir());
+        try {
+            FileOutputStream output = new FileOutputStream(file);
+            try {
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
+                }
+            } finally {
+                output.close();
+            }
+            return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        } finally {
+            input.close();
+            file.delete();
+        }
+    }
+
+    private static void closeQuietly(ParcelFileDescriptor fileDescriptor) {
+        if (fileDescriptor != null) {
+            try {
+                fileDescriptor.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.scaleimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.pdf.PdfRenderer;
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 缩略图缓存
+ * 缩略图按固定格子大小打包在图集(atlas)里，第n页固定放在第 n / 每个图集格子数 个图集中，
+ * 几千页的文档只需要几十个大bitmap，绘制时按格子裁剪。图集按最近使用淘汰，淘汰后其中的页面重新渲染。
+ * 渲染在渲染线程写入图集，完成后在主线程{@link #markRendered}才会被绘制。
+ * 渲染池的多个线程可能同时写入同一个图集，写入时锁住图集。
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class PdfThumbnailCache {
+    private static final int ATLAS_SIZE = 1024;
+
+    private final int mCellWidth;
+    private final int mCellHeight;
+    private final int mColumns;
+    private final int mCellsPerAtlas;
+    private final int mMaxAtlases;
+    //访问顺序，队头最久未使用
+    private final LinkedHashMap<Integer, Atlas> mAtlases = new LinkedHashMap<>(16, 0.75f, true);
+    private final List<OnUpdateListener> mListeners = new CopyOnWriteArrayList<>();
+
+    private final Paint mBackgroundPaint = new Paint();
+    //主线程绘制使用
+    private final Rect mSrcRect = new Rect();
+    private final RectF mDstRect = new RectF();
+
+    /**
+     * @param cellWidth  缩略图最大宽度，页面按比例缩放放入格子
+     * @param cellHeight 缩略图最大高度
+     * @param maxSize    所有图集的字节数上限，至少保留一个图集
+     */
+    public PdfThumbnailCache(int cellWidth, int cellHeight, long maxSize) {
+        mCellWidth = Math.min(ATLAS_SIZE, cellWidth);
+        mCellHeight = Math.min(ATLAS_SIZE, cellHeight);
+        mColumns = ATLAS_SIZE / mCellWidth;
+        mCellsPerAtlas = mColumns * (ATLAS_SIZE / mCellHeight);
+        long atlasBytes = (long) ATLAS_SIZE * (ATLAS_SIZE / mCellHeight) * mCellHeight * 4;
+        mMaxAtlases = (int) Math.max(1, maxSize / atlasBytes);
+        mBackgroundPaint.setColor(Color.WHITE);
+    }
+
+    public int getCellWidth() {
+        return mCellWidth;
+    }
+
+    public int getCellHeight() {
+        return mCellHeight;
+    }
+
+    /**
+     * 缓存最多容纳的页数
+     */
+    public int getCapacity() {
+        return mMaxAtlases * mCellsPerAtlas;
+    }
+
+    public synchronized boolean isRendered(int position) {
+        Atlas atlas = mAtlases.get(position / mCellsPerAtlas);
+        return atlas != null && atlas.mRendered[position % mCellsPerAtlas];
+    }
+
+    /**
+     * 把缩略图按比例居中绘制到dst中
+     *
+     * @return false 还没有渲染
+     */
+    public synchronized boolean draw(Canvas canvas, int position, RectF dst, Paint paint) {
+        Atlas atlas = mAtlases.get(position / mCellsPerAtlas);
+        int cell = position % mCellsPerAtlas;
+        if (atlas == null || !atlas.mRendered[cell]) {
+            return false;
+        }
+        int width = atlas.mWidths[cell];
+        int height = atlas.mHeights[cell];
+        int left = (cell % mColumns) * mCellWidth;
+        int top = (cell / mColumns) * mCellHeight;
+        mSrcRect.set(left, top, left + width, top + height);
+        float scale = Math.min(dst.width() / width, dst.height() / height);
+        float dx = (dst.width() - width * scale) / 2;
+        float dy = (dst.height() - height * scale) / 2;
+        mDstRect.set(dst.left + dx, dst.top + dy, dst.left + dx + width * scale, dst.top + dy + height * scale);
+        canvas.drawBitmap(atlas.mBitmap, mSrcRect, mDstRect, paint);
+        return true;
+    }
+
+    /**
+     * 在渲染线程把页面渲染到所在的格子，需要之后在主线程调用{@link #markRendered}
+     *
+     * @return 写入的图集
+     */
+    Atlas render(PdfRenderer.Page page, int position) {
+        Atlas atlas = obtainAtlas(position / mCellsPerAtlas);
+        int cell = position % mCellsPerAtlas;
+        float scale = Math.min((float) mCellWidth / page.getWidth(), (float) mCellHeight / page.getHeight());
+        int width = Math.max(1, Math.min(mCellWidth, Math.round(page.getWidth() * scale)));
+        int height = Math.max(1, Math.min(mCellHeight, Math.round(page.getHeight() * scale)));
+        int left = (cell % mColumns) * mCellWidth;
+        int top = (cell / mColumns) * mCellHeight;
+        synchronized (atlas) {
+            atlas.mClip.set(left, top, left + width, top + height);
+            atlas.mCanvas.drawRect(atlas.mClip, mBackgroundPaint);
+            atlas.mMatrix.setScale(scale, scale);
+            atlas.mMatrix.postTranslate(left, top);
+            page.render(atlas.mBitmap, atlas.mClip, atlas.mMatrix, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
+        }
+        synchronized (this) {
+            atlas.mWidths[cell] = width;
+            atlas.mHeights[cell] = height;
+        }
+        return atlas;
+    }
+
+    /**
+     * 渲染完成，之后可以绘制，图集已经被淘汰时忽略
+     */
+    synchronized void markRendered(int position, Atlas atlas) {
+        Integer index = position / mCellsPerAtlas;
+        if (mAtlases.get(index) != atlas) {
+            return;
+        }
+        atlas.mRendered[position % mCellsPerAtlas] = true;
+    }
+
+    /**
+     * 一批渲染完成后通知
+     */
+    void notifyUpdated() {
+        for (OnUpdateListener listener : mListeners) {
+            listener.onThumbnailsUpdated();
+        }
+    }
+
+    private synchronized Atlas obtainAtlas(int index) {
+        Atlas atlas = mAtlases.get(index);
+        if (atlas != null) {
+            return atlas;
+        }
+        //被淘汰的图集可能还在绘制，不回收，由gc释放
+        Iterator<Map.Entry<Integer, Atlas>> iterator = mAtlases.entrySet().iterator();
+        while (mAtlases.size() >= mMaxAtlases && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+        atlas = new Atlas(ATLAS_SIZE, ATLAS_SIZE / mCellHeight * mCellHeight, mCellsPerAtlas);
+        RenderMemoryBudget.getInstance().track(atlas.mBitmap);
+        mAtlases.put(index, atlas);
+        return atlas;
+    }
+
+    public synchronized void clear() {
+        mAtlases.clear();
+    }
+
+    public void addOnUpdateListener(OnUpdateListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeOnUpdateListener(OnUpdateListener listener) {
+        mListeners.remove(listener);
+    }
+
+    static class Atlas {
+        private final Bitmap mBitmap;
+        private final Canvas mCanvas;
+        private final boolean[] mRendered;
+        private final int[] mWidths;
+        private final int[] mHeights;
+        //写入时使用，持有图集的锁
+        private final Matrix mMatrix = new Matrix();
+        private final Rect mClip = new Rect();
+
+        Atlas(int width, int height, int cells) {
+            mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mCanvas = new Canvas(mBitmap);
+            mRendered = new boolean[cells];
+            mWidths = new int[cells];
+            mHeights = new int[cells];
+        }
+
+        Bitmap getBitmap() {
+            return mBitmap;
+        }
+    }
+
+    /**
+     * 有新的缩略图可以绘制，主线程回调
+     */
+    public interface OnUpdateListener {
+        void onThumbnailsUpdated();
+    }
+}
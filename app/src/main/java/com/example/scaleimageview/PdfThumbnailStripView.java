@@ -0,0 +1,246 @@
+package com.example.scaleimageview;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Build;
+import android.support.annotation.Nullable;
+import android.support.annotation.RequiresApi;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.View;
+import android.widget.OverScroller;
+
+/**
+ * 横向缩略图条
+ * 格子等宽排列，只绘制可见的格子，可见范围变化时向{@link PdfViewPagerHelper}请求缩略图，
+ * 没有渲染的格子绘制白色占位。滚动、绘制过程不申请内存，几千页也可以流畅滚动。
+ */
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public class PdfThumbnailStripView extends View implements PdfThumbnailCache.OnUpdateListener {
+    private static final int ITEM_GAP = 6;//dp
+    private static final int SELECTED_STROKE = 2;//dp
+    //可见范围之外额外请求的格子数
+    private static final int REQUEST_MARGIN = 8;
+
+    private PdfViewPagerHelper mHelper;
+    private PdfThumbnailCache mCache;
+    private int mPageCount;
+    private int mSelectedPage = -1;
+    private OnThumbnailClickListener mOnThumbnailClickListener;
+
+    private final float mGap;
+    private float mScrollX;
+    private int mRequestedFirst = -1;
+    private int mRequestedLast = -1;
+    private final OverScroller mScroller;
+    private final GestureDetector mGestureDetector;
+
+    private final RectF mItemRect = new RectF();
+    private final Paint mBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint mPlaceholderPaint = new Paint();
+    private final Paint mSelectedPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    public PdfThumbnailStripView(Context context) {
+        this(context, null);
+    }
+
+    public PdfThumbnailStripView(Context context, @Nullable AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public PdfThumbnailStripView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        float density = getResources().getDisplayMetrics().density;
+        mGap = ITEM_GAP * density;
+        mPlaceholderPaint.setColor(Color.WHITE);
+        mSelectedPaint.setColor(Color.BLUE);
+        mSelectedPaint.setStyle(Paint.Style.STROKE);
+        mSelectedPaint.setStrokeWidth(SELECTED_STROKE * density);
+        mScroller = new OverScroller(context);
+        mGestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                mScroller.forceFinished(true);
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                setScroll(mScrollX + distanceX);
+                return true;
+            }
+
+            @Override
+            public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
+                mScroller.fling((int) mScrollX, 0, (int) -velocityX, 0, 0, (int) maxScroll(), 0, 0);
+                postInvalidateOnAnimation();
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapUp(MotionEvent e) {
+                int page = (int) ((e.getX() + mScrollX) / itemStride());
+                if (page >= 0 && page < mPageCount) {
+                    setSelectedPage(page);
+                    if (mOnThumbnailClickListener != null) {
+                        mOnThumbnailClickListener.onThumbnailClick(page);
+                    }
+                }
+                return true;
+            }
+        });
+        setBackgroundColor(Color.DKGRAY);
+    }
+
+    /**
+     * 绑定文档，需要在helper打开文档之后调用
+     *
+     * @param helper null 解除绑定
+     */
+    public void setHelper(PdfViewPagerHelper helper) {
+        if (mCache != null) {
+            mCache.removeOnUpdateListener(this);
+        }
+        mHelper = helper;
+        mCache = helper != null ? helper.getThumbnailCache() : null;
+        mPageCount = helper != null ? helper.getPdfPageCount() : 0;
+        if (mCache != null) {
+            mCache.addOnUpdateListener(this);
+        }
+        mRequestedFirst = -1;
+        mRequestedLast = -1;
+        mScrollX = 0;
+        invalidate();
+    }
+
+    public void setOnThumbnailClickListener(OnThumbnailClickListener listener) {
+        mOnThumbnailClickListener = listener;
+    }
+
+    /**
+     * 高亮当前页，并滚动到可见
+     */
+    public void setSelectedPage(int page) {
+        mSelectedPage = page;
+        float stride = itemStride();
+        if (stride > 0) {
+            float left = page * stride;
+            if (left < mScrollX) {
+                setScroll(left);
+            } else if (left + stride > mScrollX + getWidth()) {
+                setScroll(left + stride - getWidth());
+            }
+        }
+        invalidate();
+    }
+
+    /**
+     * 格子按view高度和缩略图比例计算宽度
+     */
+    private float itemWidth() {
+        if (mCache == null) {
+            return 0;
+        }
+        float height = getHeight() - getPaddingTop() - getPaddingBottom();
+        return height * mCache.getCellWidth() / mCache.getCellHeight();
+    }
+
+    private float itemStride() {
+        return itemWidth() + mGap;
+    }
+
+    private float maxScroll() {
+        return Math.max(0, mPageCount * itemStride() + mGap - getWidth());
+    }
+
+    private void setScroll(float x) {
+        mScrollX = Math.max(0, Math.min(maxScroll(), x));
+        invalidate();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (mCache == null) {
+            return super.onTouchEvent(event);
+        }
+        mGestureDetector.onTouchEvent(event);
+        return true;
+    }
+
+    @Override
+    public void computeScroll() {
+        if (mScroller.computeScrollOffset()) {
+            setScroll(mScroller.getCurrX());
+            postInvalidateOnAnimation();
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        float stride = itemStride();
+        if (mCache == null || mPageCount == 0 || stride <= mGap) {
+            return;
+        }
+        float itemWidth = itemWidth();
+        int first = Math.max(0, (int) (mScrollX / stride));
+        int last = Math.min(mPageCount - 1, (int) ((mScrollX + getWidth()) / stride));
+        requestVisible(first, last);
+        float top = getPaddingTop();
+        float bottom = getHeight() - getPaddingBottom();
+        for (int page = first; page <= last; page++) {
+            float left = mGap + page * stride - mScrollX;
+            mItemRect.set(left, top, left + itemWidth, bottom);
+            if (!mCache.draw(canvas, page, mItemRect, mBitmapPaint)) {
+                canvas.drawRect(mItemRect, mPlaceholderPaint);
+            }
+            if (page == mSelectedPage) {
+                canvas.drawRect(mItemRect, mSelectedPaint);
+            }
+        }
+    }
+
+    /**
+     * 可见范围超出上次请求的范围时，请求新的范围
+     */
+    private void requestVisible(int first, int last) {
+        if (mHelper == null || (first >= mRequestedFirst && last <= mRequestedLast)) {
+            return;
+        }
+        mRequestedFirst = Math.max(0, first - REQUEST_MARGIN);
+        mRequestedLast = Math.min(mPageCount - 1, last + REQUEST_MARGIN);
+        mHelper.requestThumbnails(mRequestedFirst, mRequestedLast);
+    }
+
+    @Override
+    public void onThumbnailsUpdated() {
+        //图集被淘汰后需要重新请求
+        mRequestedFirst = -1;
+        mRequestedLast = -1;
+        invalidate();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (mCache != null) {
+            mCache.removeOnUpdateListener(this);
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mCache != null) {
+            mCache.addOnUpdateListener(this);
+        }
+    }
+
+    public interface OnThumbnailClickListener {
+        void onThumbnailClick(int page);
+    }
+}
@@ -0,0 +1,334 @@
+package com.example.scaleimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PointF;
+import android.support.v4.util.LongSparseArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 分块(tile)管理
+ * 按缩放比量化出层级，level n 的分辨率为底图的 2^n 倍，每一层切成 {@link #TILE_SIZE} 大小的tile，
+ * tile(n, col, row) 的四个子块为 (n + 1, 2col ~ 2col + 1, 2row ~ 2row + 1)，构成一颗四叉树。
+ * 每个tile单独渲染、缓存、绘制，当前层级缺失的tile用已有的祖先tile补位。
+ * 缓存按字节数限制，tile串在按访问顺序排列的双向链表上，淘汰时从链表头部取出，不需要扫描。
+ */
+public class PdfTileManager {
+    //tile边长
+    public static final int TILE_SIZE = 256;
+    //最大层级，2^4 = 16 倍，覆盖 setMaxScale(15f)
+    private static final int MAX_LEVEL = 4;
+    //默认缓存上限为最大可用内存的1/32
+    private static final long DEFAULT_MAX_SIZE = Runtime.getRuntime().maxMemory() / 32;
+    private static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+
+    //long key避免绘制时装箱
+    private final LongSparseArray<Tile> mTiles = new LongSparseArray<>(64);
+    //访问顺序链表的哨兵，next为最久未使用，prev为最近使用
+    private final Tile mLruHead = new Tile(0, 0, 0);
+    private long mSize;
+    private long mMaxSize = DEFAULT_MAX_SIZE;
+    //一屏可见的tile字节数，上限不低于它，避免可见的tile互相淘汰
+    private long mMinSize;
+    private final Matrix mDrawMatrix = new Matrix();
+    private int mSourceWidth;
+    private int mSourceHeight;
+    private int mMaxLevel = MAX_LEVEL;
+    private int mDrawFrame;
+
+    //当前可见范围，由computeVisibleRange计算
+    private int mLevel;
+    private int mFirstCol;
+    private int mLastCol;
+    private int mFirstRow;
+    private int mLastRow;
+
+    /**
+     * 设置底图尺寸，尺寸变化时之前的tile全部失效
+     */
+    public void setSourceSize(int width, int height) {
+        if (width != mSourceWidth || height != mSourceHeight) {
+            clear();
+            mSourceWidth = width;
+            mSourceHeight = height;
+        }
+    }
+
+    public PdfTileManager() {
+        mLruHead.prev = mLruHead;
+        mLruHead.next = mLruHead;
+    }
+
+    /**
+     * 根据view尺寸计算缓存上限的下限：一屏可见的tile
+     */
+    public void setViewSize(int width, int height) {
+        int cols = width / TILE_SIZE + 2;
+        int rows = height / TILE_SIZE + 2;
+        mMinSize = (long) cols * rows * TILE_BYTES;
+        trimToSize();
+    }
+
+    /**
+     * 缓存上限，字节数，不低于一屏可见的tile
+     */
+    public void setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+        trimToSize();
+    }
+
+    public long getSize() {
+        return mSize;
+    }
+
+    /**
+     * 限制最高层级，超出后放大最高层级的tile绘制，如按原图区域解码时原图分辨率就是最高层级
+     */
+    public void setMaxLevel(int level) {
+        int maxLevel = Math.max(0, Math.min(MAX_LEVEL, level));
+        if (maxLevel != mMaxLevel) {
+            clear();
+            mMaxLevel = maxLevel;
+        }
+    }
+
+    /**
+     * 缩放比对应的层级，0层即底图本身，不需要tile
+     */
+    public static int levelForScale(float scale) {
+        if (scale <= 1f) {
+            return 0;
+        }
+        int level = (int) Math.ceil(Math.log(scale) / Math.log(2));
+        return Math.min(MAX_LEVEL, Math.max(0, level));
+    }
+
+    /**
+     * 计算当前可见的tile范围
+     *
+     * @return false 不需要tile
+     */
+    private boolean computeVisibleRange(float scale, PointF translate, int viewWidth, int viewHeight) {
+        mLevel = Math.min(mMaxLevel, levelForScale(scale));
+        if (mLevel == 0 || translate == null || mSourceWidth <= 0 || mSourceHeight <= 0) {
+            return false;
+        }
+        int levelScale = 1 << mLevel;
+        //view可见区域在底图中的坐标
+        float sLeft = Math.max(0, -translate.x / scale);
+        float sTop = Math.max(0, -translate.y / scale);
+        float sRight = Math.min(mSourceWidth, (viewWidth - translate.x) / scale);
+        float sBottom = Math.min(mSourceHeight, (viewHeight - translate.y) / scale);
+        if (sRight <= sLeft || sBottom <= sTop) {
+            return false;
+        }
+        float tileSourceSize = (float) TILE_SIZE / levelScale;
+        mFirstCol = (int) (sLeft / tileSourceSize);
+        mFirstRow = (int) (sTop / tileSourceSize);
+        mLastCol = (int) Math.ceil(sRight / tileSourceSize) - 1;
+        mLastRow = (int) Math.ceil(sBottom / tileSourceSize) - 1;
+        return true;
+    }
+
+    /**
+     * 当前视口中还没有渲染的tile，按距离视口中心由近到远排序
+     */
+    public List<Tile> collectMissingTiles(float scale, PointF translate, int viewWidth, int viewHeight) {
+        List<Tile> missing = new ArrayList<>();
+        if (!computeVisibleRange(scale, translate, viewWidth, viewHeight)) {
+            return missing;
+        }
+        final float centerCol = (mFirstCol + mLastCol) / 2f;
+        final float centerRow = (mFirstRow + mLastRow) / 2f;
+        for (int row = mFirstRow; row <= mLastRow; row++) {
+            for (int col = mFirstCol; col <= mLastCol; col++) {
+                if (peekTile(mLevel, col, row) == null) {
+                    missing.add(new Tile(mLevel, col, row));
+                }
+            }
+        }
+        Collections.sort(missing, new Comparator<Tile>() {
+            @Override
+            public int compare(Tile a, Tile b) {
+                return Float.compare(distance(a, centerCol, centerRow), distance(b, centerCol, centerRow));
+            }
+        });
+        return missing;
+    }
+
+    private static float distance(Tile tile, float col, float row) {
+        float dx = tile.col - col;
+        float dy = tile.row - row;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * tile渲染完成
+     */
+    public void putTile(Tile tile) {
+        long key = key(tile.level, tile.col, tile.row);
+        Tile old = mTiles.get(key);
+        if (old != null) {
+            unlink(old);
+            mSize -= old.byteCount;
+            if (old != tile && old.bitmap != null && old.bitmap != tile.bitmap) {
+                BitmapPool.getInstance().put(old.bitmap);
+                old.bitmap = null;
+            }
+        }
+        tile.byteCount = tile.bitmap != null ? tile.bitmap.getByteCount() : 0;
+        mTiles.put(key, tile);
+        linkLast(tile);
+        mSize += tile.byteCount;
+        trimToSize();
+    }
+
+    /**
+     * 超出缓存上限时从链表头部淘汰最久未使用的tile
+     */
+    private void trimToSize() {
+        long maxSize = Math.max(mMaxSize, mMinSize);
+        while (mSize > maxSize && mLruHead.next != mLruHead) {
+            Tile tile = mLruHead.next;
+            unlink(tile);
+            mTiles.remove(key(tile.level, tile.col, tile.row));
+            mSize -= tile.byteCount;
+            if (tile.bitmap != null) {
+                BitmapPool.getInstance().put(tile.bitmap);
+                tile.bitmap = null;
+            }
+        }
+    }
+
+    private void linkLast(Tile tile) {
+        tile.prev = mLruHead.prev;
+        tile.next = mLruHead;
+        mLruHead.prev.next = tile;
+        mLruHead.prev = tile;
+    }
+
+    private static void unlink(Tile tile) {
+        if (tile.prev == null) {
+            return;
+        }
+        tile.prev.next = tile.next;
+        tile.next.prev = tile.prev;
+        tile.prev = null;
+        tile.next = null;
+    }
+
+    /**
+     * 绘制当前层级的tile，缺失的tile用祖先tile补位
+     *
+     * @return 是否绘制了tile
+     */
+    public boolean draw(Canvas canvas, float scale, PointF translate, int viewWidth, int viewHeight, Paint paint) {
+        if (mTiles.size() == 0 || !computeVisibleRange(scale, translate, viewWidth, viewHeight)) {
+            return false;
+        }
+        mDrawFrame++;
+        //先绘制补位的低分辨率祖先
+        for (int row = mFirstRow; row <= mLastRow; row++) {
+            for (int col = mFirstCol; col <= mLastCol; col++) {
+                if (peekTile(mLevel, col, row) == null) {
+                    drawAncestor(canvas, col, row, scale, translate, paint);
+                }
+            }
+        }
+        //再绘制当前层级
+        for (int row = mFirstRow; row <= mLastRow; row++) {
+            for (int col = mFirstCol; col <= mLastCol; col++) {
+                Tile tile = peekTile(mLevel, col, row);
+                if (tile != null) {
+                    drawTile(canvas, tile, scale, translate, paint);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void drawAncestor(Canvas canvas, int col, int row, float scale, PointF translate, Paint paint) {
+        for (int level = mLevel - 1; level > 0; level--) {
+            col >>= 1;
+            row >>= 1;
+            Tile parent = peekTile(level, col, row);
+            if (parent != null) {
+                if (parent.drawFrame != mDrawFrame) {
+                    drawTile(canvas, parent, scale, translate, paint);
+                }
+                return;
+            }
+        }
+    }
+
+    private void drawTile(Canvas canvas, Tile tile, float scale, PointF translate, Paint paint) {
+        tile.drawFrame = mDrawFrame;
+        float tileScale = scale / (1 << tile.level);
+        mDrawMatrix.setScale(tileScale, tileScale);
+        mDrawMatrix.postTranslate(tile.col * TILE_SIZE * tileScale + translate.x,
+                tile.row * TILE_SIZE * tileScale + translate.y);
+        canvas.drawBitmap(tile.bitmap, mDrawMatrix, paint);
+    }
+
+    /**
+     * 查询已经渲染好的tile，绘制时访问同样刷新lru顺序
+     */
+    private Tile peekTile(int level, int col, int row) {
+        Tile tile = mTiles.get(key(level, col, row));
+        if (tile == null || tile.bitmap == null) {
+            return null;
+        }
+        //移到链表尾部
+        unlink(tile);
+        linkLast(tile);
+        return tile;
+    }
+
+    /**
+     * 释放所有tile
+     */
+    public void clear() {
+        for (int i = 0; i < mTiles.size(); i++) {
+            Tile tile = mTiles.valueAt(i);
+            if (tile.bitmap != null) {
+                BitmapPool.getInstance().put(tile.bitmap);
+                tile.bitmap = null;
+            }
+            tile.prev = null;
+            tile.next = null;
+        }
+        mTiles.clear();
+        mLruHead.prev = mLruHead;
+        mLruHead.next = mLruHead;
+        mSize = 0;
+    }
+
+    private static long key(int level, int col, int row) {
+        return ((long) level << 48) | ((long) col << 24) | row;
+    }
+
+    public static class Tile {
+        public final int level;
+        public final int col;
+        public final int row;
+        //渲染结果，由加载任务写入
+        Bitmap bitmap;
+        private int drawFrame;
+        private int byteCount;
+        //访问顺序链表
+        private Tile prev;
+        private Tile next;
+
+        Tile(int level, int col, int row) {
+            this.level = level;
+            this.col = col;
+            this.row = row;
+        }
+    }
+}
@@ -1,15 +1,25 @@
 package com.example.scaleimageview;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.Rect;
 import android.graphics.pdf.PdfRenderer;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.RequiresApi;
 import android.support.v4.view.PagerAdapter;
 import android.support.v4.view.ViewPager;
 import android.text.TextUtils;
+import android.util.LruCache;
+import android.util.SparseArray;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
@@ -19,99 +29,749 @@ import java.io.IOException;
 
 @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
 public class PdfViewPagerHelper implements ViewPager.OnPageChangeListener,
-        PdfScaleImageView.OnLoadPageCallback {
+        PdfScaleImageView.OnLoadPageCallback, ComponentCallbacks2, RenderMemoryBudget.OnLevelChangeListener {
+
+    private static final int THUMBNAIL_CACHE_SIZE = 4 * 1024 * 1024;
+    //缩略图相对页面的缩放
+    private static final int THUMBNAIL_SAMPLE = 8;
+    //当前页和ViewPager已经创建的左右两页
+    private static final int RESIDENT_PAGES = 3;
+    //滑动超过这个比例才认为方向确定
+    private static final float PREFETCH_OFFSET_THRESHOLD = 0.05f;
+    //概览缩略图默认格子大小和缓存上限
+    private static final int OVERVIEW_THUMBNAIL_WIDTH = 120;
+    private static final int OVERVIEW_THUMBNAIL_HEIGHT = 160;
+    private static final long OVERVIEW_CACHE_SIZE = 16 * 1024 * 1024;
+    //每个缩略图请求渲染的页数
+    private static final int THUMBNAIL_BATCH_SIZE = 8;
 
     private ViewPager mPreviewPdfView;
+    //连续滚动模式，与ViewPager二选一
+    private PdfDocumentView mDocumentView;
     private PdfPagerAdapter mPdfPagerAdapter;
     private int mPdfPageCount = 0;
 
-    private ParcelFileDescriptor mFileDescriptor;
-    private PdfRenderer mPdfRenderer;
-    //当前打开的pdf page
-    private PdfRenderer.Page mCurrentPage;
+    //PdfRenderer由渲染线程独占，所有页面访问都通过调度器
+    private PdfRenderScheduler mRenderScheduler;
+    //渲染线程数，默认1
+    private int mRendererPoolSize = 1;
+    //页面原始尺寸，异步打开时一次性读出，同步打开时由渲染线程打开页面后记录
+    private PdfPageIndex mPageIndex;
+    private OpenTask mOpenTask;
 
     private int mCurrentPosition;
     private PdfPageListener mPdfPageListener;
     private Context mContext;
     private boolean isAttached;
+    //是否分块渲染高清内容
+    private boolean mTileRenderingEnabled;
+    //渲染好的页面缓存，翻回已经看过的页面时直接显示
+    private final PdfPageCache mPageCache = new PdfPageCache(PdfPageCache.defaultMaxSize());
+    private String mDocumentId;
+    //磁盘缓存，默认关闭
+    private long mDiskCacheSize;
+    private PdfDiskCache mDiskCache;
+    private String mFingerprint;
+    //正在渲染的页面，页面被销毁时取消
+    private final SparseArray<PdfRenderScheduler.RenderTask> mPageTasks = new SparseArray<>();
+    //预取
+    private final SparseArray<PdfRenderScheduler.RenderTask> mPrefetchTasks = new SparseArray<>();
+    private int mPrefetchDepth = 1;
+    private int mPrefetchDirection;
+    private int mPrefetchAnchor = -1;
+    //渲染耗时统计
+    private final RenderMetrics mRenderMetrics = new RenderMetrics();
+    private RenderMetricsListener mRenderMetricsListener;
+    private long mAttachTime;
+    private boolean isFirstPageShown;
+    //按绘制帧时间降低补丁分辨率、预取页数和底图分辨率
+    private final FrameTimeGovernor mFrameTimeGovernor = new FrameTimeGovernor();
+    private final FrameTimeGovernor.OnLevelChangeListener mFrameLevelListener = new FrameTimeGovernor.OnLevelChangeListener() {
+        @Override
+        public void onFrameLevelChanged(int level) {
+            if (mPdfPagerAdapter != null && mPdfPagerAdapter.getCurrentPdfImageView() != null) {
+                mPdfPagerAdapter.getCurrentPdfImageView().setPartResolution(mFrameTimeGovernor.getPartResolution());
+            }
+            //超出新预取窗口的预取取消，底图分辨率在之后渲染的页面生效
+            cancelPrefetch(mCurrentPosition, prefetchBudget() * mPrefetchDirection);
+        }
+    };
+    private final PdfRenderScheduler.OnRenderListener mMetricsRenderListener = new PdfRenderScheduler.OnRenderListener() {
+        @Override
+        public void onRenderComplete(PdfRenderScheduler.RenderTask task, Bitmap bitmap) {
+            recordRender(task, false);
+        }
+
+        @Override
+        public void onRenderCancelled(PdfRenderScheduler.RenderTask task) {
+            recordRender(task, true);
+        }
+    };
+    //概览缩略图，第一次使用时创建
+    private PdfThumbnailCache mOverviewCache;
+    private int mOverviewWidth = OVERVIEW_THUMBNAIL_WIDTH;
+    private int mOverviewHeight = OVERVIEW_THUMBNAIL_HEIGHT;
+    //排队中的缩略图批次，key为批次第一页
+    private final SparseArray<PdfRenderScheduler.RenderTask> mThumbnailTasks = new SparseArray<>();
+    //渲染过的页面缩略图，重新渲染期间作为占位显示
+    private final LruCache<Integer, Bitmap> mThumbnailCache = new LruCache<Integer, Bitmap>(THUMBNAIL_CACHE_SIZE) {
+        @Override
+        protected int sizeOf(Integer key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
 
     public PdfViewPagerHelper(Context context) {
         this.mContext = context;
+        mFrameTimeGovernor.setOnLevelChangeListener(mFrameLevelListener);
     }
 
+    /**
+     * 在调用线程打开文档，页面尺寸在显示时逐页获取，大文档建议使用{@link #open}
+     */
     public boolean attachViewPager(ViewPager pdfViewPager, String pdfFilePath) throws IOException {
         if (pdfViewPager == null || TextUtils.isEmpty(pdfFilePath)) {
             return false;
         }
-        this.mFileDescriptor = ParcelFileDescriptor.open(new File(pdfFilePath), ParcelFileDescriptor.MODE_READ_ONLY);
+        return attachViewPager(pdfViewPager, PdfSource.fromFile(pdfFilePath));
+    }
+
+    /**
+     * 从content uri打开，provider不能提供可以随机读取的描述符时复制到临时文件，见{@link PdfSource#fromUri}
+     */
+    public boolean attachViewPager(ViewPager pdfViewPager, Uri uri) throws IOException {
+        if (pdfViewPager == null || uri == null) {
+            return false;
+        }
+        return attachViewPager(pdfViewPager, PdfSource.fromUri(uri));
+    }
+
+    /**
+     * @param assetFileDescriptor 所有权转移，close时关闭
+     */
+    public boolean attachViewPager(ViewPager pdfViewPager, AssetFileDescriptor assetFileDescriptor) throws IOException {
+        if (pdfViewPager == null || assetFileDescriptor == null) {
+            return false;
+        }
+        return attachViewPager(pdfViewPager, PdfSource.fromAssetFileDescriptor(assetFileDescriptor));
+    }
+
+    /**
+     * @param fileDescriptor 所有权转移，close时关闭
+     */
+    public boolean attachViewPager(ViewPager pdfViewPager, ParcelFileDescriptor fileDescriptor) throws IOException {
+        if (pdfViewPager == null || fileDescriptor == null) {
+            return false;
+        }
+        return attachViewPager(pdfViewPager, PdfSource.fromFileDescriptor(fileDescriptor));
+    }
+
+    /**
+     * 在调用线程打开任意来源的文档，需要复制时耗时与文档大小成正比
+     */
+    public boolean attachViewPager(ViewPager pdfViewPager, PdfSource source) throws IOException {
+        if (pdfViewPager == null || source == null) {
+            return false;
+        }
+        mAttachTime = SystemClock.uptimeMillis();
+        isFirstPageShown = false;
+        ParcelFileDescriptor fileDescriptor = source.open(mContext);
+        if (fileDescriptor == null) {
+            return false;
+        }
+        PdfRenderer pdfRenderer;
+        try {
+            openDiskCache(fileDescriptor);
+            pdfRenderer = new PdfRenderer(fileDescriptor);
+        } catch (IOException | RuntimeException e) {
+            fileDescriptor.close();
+            throw e;
+        }
+        attach(pdfViewPager, source.getDocumentId(), pdfRenderer, fileDescriptor, new PdfPageIndex(pdfRenderer.getPageCount()));
+        return true;
+    }
+
+    /**
+     * 异步打开文档，在后台线程打开文件、读出所有页面尺寸，完成后在主线程attach并回调
+     */
+    public void open(ViewPager pdfViewPager, String pdfFilePath, OnOpenListener listener) {
+        if (TextUtils.isEmpty(pdfFilePath)) {
+            if (listener != null) {
+                listener.onOpenFailed(new IOException("invalid file path"));
+            }
+            return;
+        }
+        open(pdfViewPager, PdfSource.fromFile(pdfFilePath), listener);
+    }
+
+    /**
+     * 异步打开任意来源的文档，需要复制的来源也在后台线程复制
+     */
+    public void open(ViewPager pdfViewPager, PdfSource source, OnOpenListener listener) {
+        if (pdfViewPager == null || source == null) {
+            if (listener != null) {
+                listener.onOpenFailed(new IOException("invalid view pager or source"));
+            }
+            return;
+        }
+        startOpenTask(new OpenTask(pdfViewPager, null, source, listener));
+    }
+
+    /**
+     * 异步打开文档，以连续滚动的方式显示在documentView中
+     */
+    public void open(PdfDocumentView documentView, String pdfFilePath, OnOpenListener listener) {
+        if (TextUtils.isEmpty(pdfFilePath)) {
+            if (listener != null) {
+                listener.onOpenFailed(new IOException("invalid file path"));
+            }
+            return;
+        }
+        open(documentView, PdfSource.fromFile(pdfFilePath), listener);
+    }
+
+    public void open(PdfDocumentView documentView, PdfSource source, OnOpenListener listener) {
+        if (documentView == null || source == null) {
+            if (listener != null) {
+                listener.onOpenFailed(new IOException("invalid document view or source"));
+            }
+            return;
+        }
+        startOpenTask(new OpenTask(null, documentView, source, listener));
+    }
+
+    private void startOpenTask(OpenTask task) {
+        if (mOpenTask != null) {
+            mOpenTask.cancel(false);
+        }
+        mAttachTime = SystemClock.uptimeMillis();
+        isFirstPageShown = false;
+        mOpenTask = task;
+        mOpenTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private void attach(PdfDocumentView documentView, String documentId, PdfRenderer pdfRenderer,
+                        ParcelFileDescriptor fileDescriptor, PdfPageIndex pageIndex) {
+        mDocumentView = documentView;
+        mDocumentId = documentId;
+        mContext.getApplicationContext().registerComponentCallbacks(this);
+        RenderMemoryBudget.getInstance().addOnLevelChangeListener(this);
+        mPdfPageCount = pageIndex.getPageCount();
+        mPageIndex = pageIndex;
+        mRenderScheduler = createScheduler(pdfRenderer, fileDescriptor);
+        mDocumentView.setDocument(mRenderScheduler, mPageIndex);
+        isAttached = true;
+    }
+
+    private void attach(ViewPager pdfViewPager, String documentId, PdfRenderer pdfRenderer,
+                        ParcelFileDescriptor fileDescriptor, PdfPageIndex pageIndex) {
         mPreviewPdfView = pdfViewPager;
-        if (mFileDescriptor != null) {
-            mPdfRenderer = new PdfRenderer(mFileDescriptor);
-            mPdfPageCount = mPdfRenderer.getPageCount();
-            mPdfPagerAdapter = new PdfPagerAdapter();
-            mPreviewPdfView.addOnPageChangeListener(this);
-            mPreviewPdfView.post(new Runnable() {
+        mDocumentId = documentId;
+        mContext.getApplicationContext().registerComponentCallbacks(this);
+        RenderMemoryBudget.getInstance().addOnLevelChangeListener(this);
+        mPdfPageCount = pageIndex.getPageCount();
+        mPageIndex = pageIndex;
+        mRenderScheduler = createScheduler(pdfRenderer, fileDescriptor);
+        mPdfPagerAdapter = new PdfPagerAdapter();
+        mPreviewPdfView.addOnPageChangeListener(this);
+        mPreviewPdfView.post(new Runnable() {
+            @Override
+            public void run() {
+                mPreviewPdfView.setAdapter(mPdfPagerAdapter);
+                mPreviewPdfView.setVisibility(View.VISIBLE);
+            }
+        });
+        isAttached = true;
+    }
+
+    private PdfRenderScheduler createScheduler(PdfRenderer pdfRenderer, ParcelFileDescriptor fileDescriptor) {
+        PdfRenderScheduler scheduler = new PdfRenderScheduler(pdfRenderer, fileDescriptor, mRendererPoolSize);
+        scheduler.setParallelism(PdfRenderScheduler.parallelismFor(scheduler.getPoolSize(),
+                RenderMemoryBudget.getInstance().getLevel()));
+        return scheduler;
+    }
+
+    /**
+     * 页面尺寸索引，没有打开文档时为null
+     */
+    public PdfPageIndex getPageIndex() {
+        return mPageIndex;
+    }
+
+    public void setPdfPageListener(PdfPageListener listener) {
+        mPdfPageListener = listener;
+    }
+
+    /**
+     * 每次渲染结束、第一页显示时回调，主线程执行
+     */
+    public void setRenderMetricsListener(RenderMetricsListener listener) {
+        mRenderMetricsListener = listener;
+    }
+
+    /**
+     * 渲染耗时统计，可以随时{@link RenderMetrics#dump()}
+     */
+    public RenderMetrics getRenderMetrics() {
+        return mRenderMetrics;
+    }
+
+    /**
+     * 开启磁盘缓存，需要在attachViewPager之前调用
+     *
+     * @param maxSize 缓存上限，字节数，0 关闭
+     */
+    public void setDiskCacheEnabled(long maxSize) {
+        mDiskCacheSize = maxSize;
+    }
+
+    private void openDiskCache(ParcelFileDescriptor fileDescriptor) {
+        if (mDiskCacheSize <= 0 || mDiskCache != null) {
+            return;
+        }
+        String fingerprint = fingerprintOf(fileDescriptor);
+        if (fingerprint != null) {
+            setDiskCache(openDiskCache(mContext, mDiskCacheSize), fingerprint);
+        }
+    }
+
+    /**
+     * 文档指纹，失败时返回null，不使用磁盘缓存。可以在后台线程调用
+     */
+    private static String fingerprintOf(ParcelFileDescriptor fileDescriptor) {
+        try {
+            return PdfDiskCache.fingerprint(fileDescriptor);
+        } catch (IOException e) {
+            //磁盘缓存不可用时直接渲染
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 打开磁盘缓存，失败时返回null。可以在后台线程调用
+     */
+    private static PdfDiskCache openDiskCache(Context context, long maxSize) {
+        try {
+            return PdfDiskCache.open(new File(context.getCacheDir(), "pdf_render_cache"), maxSize);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 主线程设置磁盘缓存，与close在同一线程，不会在关闭后又被设置
+     */
+    private void setDiskCache(PdfDiskCache diskCache, String fingerprint) {
+        if (diskCache == null || mDiskCache != null) {
+            return;
+        }
+        mFingerprint = fingerprint;
+        mDiskCache = diskCache;
+    }
+
+    /**
+     * 放大后使用分块渲染，平移时只渲染新进入视口的tile
+     */
+    public void setTileRenderingEnabled(boolean enabled) {
+        mTileRenderingEnabled = enabled;
+    }
+
+    /**
+     * 渲染线程数，需要在打开文档之前调用。PdfRenderer无法在多个线程并行渲染，
+     * 调度器目前把线程数限制为1，原因见{@link PdfRenderScheduler}
+     */
+    public void setRendererPoolSize(int poolSize) {
+        mRendererPoolSize = Math.max(1, poolSize);
+    }
+
+    /**
+     * 按滑动方向预取的页数，预取的页面在后台以低优先级渲染放入缓存，0 关闭
+     */
+    public void setPrefetchDepth(int depth) {
+        mPrefetchDepth = Math.max(0, depth);
+        cancelPrefetch(mCurrentPosition, 0);
+    }
+
+    /**
+     * 帧时间调节，可以修改帧时间预算，见{@link FrameTimeGovernor#setFrameBudgetNanos}
+     */
+    public FrameTimeGovernor getFrameTimeGovernor() {
+        return mFrameTimeGovernor;
+    }
+
+    /**
+     * 新渲染底图的分辨率缩放，内存预算和帧时间调节共同决定
+     */
+    private float renderResolution() {
+        return RenderMemoryBudget.getInstance().getResolutionScale() * mFrameTimeGovernor.getBaseScale();
+    }
+
+    /**
+     * 概览缩略图的最大尺寸，需要在第一次{@link #getThumbnailCache()}之前调用
+     */
+    public void setThumbnailSize(int width, int height) {
+        mOverviewWidth = Math.max(1, width);
+        mOverviewHeight = Math.max(1, height);
+    }
+
+    /**
+     * 概览缩略图缓存，所有页面共用打包的图集
+     */
+    public PdfThumbnailCache getThumbnailCache() {
+        if (mOverviewCache == null) {
+            mOverviewCache = new PdfThumbnailCache(mOverviewWidth, mOverviewHeight, OVERVIEW_CACHE_SIZE);
+        }
+        return mOverviewCache;
+    }
+
+    /**
+     * 请求渲染[from, to]的概览缩略图，按批次以最低优先级排队，已经渲染或者排队的页面跳过
+     */
+    public void requestThumbnails(int from, int to) {
+        if (!isAttached || mRenderScheduler == null) {
+            return;
+        }
+        PdfThumbnailCache cache = getThumbnailCache();
+        from = Math.max(0, from);
+        to = Math.min(mPdfPageCount - 1, to);
+        for (int start = from / THUMBNAIL_BATCH_SIZE * THUMBNAIL_BATCH_SIZE; start <= to; start += THUMBNAIL_BATCH_SIZE) {
+            if (mThumbnailTasks.get(start) != null) {
+                continue;
+            }
+            int end = Math.min(mPdfPageCount, start + THUMBNAIL_BATCH_SIZE);
+            boolean isRendered = true;
+            for (int position = start; position < end && isRendered; position++) {
+                isRendered = cache.isRendered(position);
+            }
+            if (isRendered) {
+                continue;
+            }
+            final int batchStart = start;
+            PdfRenderScheduler.RenderTask task = new ThumbnailBatchTask(cache, start, end);
+            task.addOnRenderListener(new PdfRenderScheduler.OnRenderListener() {
                 @Override
-                public void run() {
-                    mPreviewPdfView.setAdapter(mPdfPagerAdapter);
-                    mPreviewPdfView.setVisibility(View.VISIBLE);
+                public void onRenderComplete(PdfRenderScheduler.RenderTask task, Bitmap bitmap) {
+                    if (mThumbnailTasks.get(batchStart) == task) {
+                        mThumbnailTasks.remove(batchStart);
+                    }
+                    ((ThumbnailBatchTask) task).publish();
+                }
+
+                @Override
+                public void onRenderCancelled(PdfRenderScheduler.RenderTask task) {
+                    if (mThumbnailTasks.get(batchStart) == task) {
+                        mThumbnailTasks.remove(batchStart);
+                    }
                 }
             });
-            isAttached = true;
-            return true;
+            mThumbnailTasks.put(start, mRenderScheduler.submit(task));
         }
-        return false;
     }
 
-    public void setPdfPageListener(PdfPageListener listener) {
-        mPdfPageListener = listener;
+    /**
+     * 后台渲染缓存能容纳的所有页面的概览缩略图
+     */
+    public void startThumbnailPass() {
+        requestThumbnails(0, Math.min(mPdfPageCount, getThumbnailCache().getCapacity()) - 1);
+    }
+
+    private void cancelThumbnails() {
+        if (mRenderScheduler != null) {
+            for (int i = 0; i < mThumbnailTasks.size(); i++) {
+                mRenderScheduler.cancel(mThumbnailTasks.valueAt(i));
+            }
+        }
+        mThumbnailTasks.clear();
     }
 
     /**
      * get pdf page count
      */
     public int getPdfPageCount() {
-        return !isAttached || mPdfRenderer == null ? 0 : mPdfRenderer.getPageCount();
+        return !isAttached ? 0 : mPdfPageCount;
     }
 
     /**
      * 加载补丁
      */
     public void loadPart() {
-        if (isAttached && mPdfPagerAdapter.getCurrentPdfImageView() != null) {
+        if (isAttached && mPdfPagerAdapter != null && mPdfPagerAdapter.getCurrentPdfImageView() != null) {
             mPdfPagerAdapter.getCurrentPdfImageView().loadPart();
         }
     }
 
     /**
-     * 获取当前pdf Page对象
-     *
-     * @param index
-     * @return
+     * 设置PDF bitmap，页面尺寸已知时先查内存缓存，否则先显示占位，在渲染线程依次查找磁盘缓存、打开页面渲染
      */
-    private PdfRenderer.Page getPdfPage(int index) {
-        if (mCurrentPage != null) {
-            mCurrentPage.close();
-            mCurrentPage = null;
+    private void setImageBitmap(final int position, final PdfScaleImageView imageView) {
+        if (mRenderScheduler == null) {
+            return;
         }
-        if (mPdfRenderer != null && mPdfPageCount > index) {
-            return mCurrentPage = mPdfRenderer.openPage(index);
+        int orientation = mContext.getResources().getConfiguration().orientation;
+        int width = imageView.getWidth();
+        int height = imageView.getHeight();
+        float resolution = renderResolution();
+        if (mPageIndex.hasPageSize(position)) {
+            float pdfScale = getPageScale(position, width, height, orientation, resolution);
+            Bitmap bitmap = mPageCache.acquire(new PdfPageCache.Key(mDocumentId, position, pdfScale, orientation));
+            if (bitmap != null) {
+                imageView.showPdfBitmap(bitmap, pdfScale, true);
+                recordSample(new RenderMetrics.Sample(RenderMetrics.TYPE_BASE, position, pixelsOf(bitmap),
+                        0, 0, false, false, true));
+                onPageShown();
+                return;
+            }
         }
-        return null;
+        imageView.setPlaceholder(mThumbnailCache.get(position));
+        PdfRenderScheduler.RenderTask task = new PageRenderTask(position, width, height, orientation, resolution,
+                PdfRenderScheduler.PRIORITY_CURRENT_PAGE);
+        task.addOnRenderListener(new PdfRenderScheduler.OnRenderListener() {
+            @Override
+            public void onRenderComplete(PdfRenderScheduler.RenderTask task, Bitmap bitmap) {
+                mPageTasks.remove(position);
+                if (bitmap == null) {
+                    return;
+                }
+                if (!isAttached) {
+                    //已经close，页面缓存不再接收
+                    BitmapPool.getInstance().put(bitmap);
+                    return;
+                }
+                PageRenderTask pageTask = (PageRenderTask) task;
+                //先标记为显示中，避免超出上限时刚放入就被淘汰回收
+                mPageCache.retain(bitmap);
+                persistPage(pageTask, bitmap);
+                mPageCache.put(new PdfPageCache.Key(mDocumentId, position, pageTask.mPdfScale, pageTask.mOrientation), bitmap);
+                if (pageTask.mThumbnail != null) {
+                    mThumbnailCache.put(position, pageTask.mThumbnail);
+                }
+                imageView.showPdfBitmap(bitmap, pageTask.mPdfScale, true);
+                onPageShown();
+            }
+
+            @Override
+            public void onRenderCancelled(PdfRenderScheduler.RenderTask task) {
+            }
+        });
+        mPageTasks.put(position, submit(task));
     }
 
     /**
-     * 设置PDF bitmap
+     * 提交渲染请求，新加入队列的请求统计耗时，被合并的由原请求统计
      */
-    private void setImageBitmap(int position, PdfScaleImageView imageView) {
-        PdfRenderer.Page pdfPage = getPdfPage(position);
-        if (pdfPage != null) {
-            imageView.showPdfPage(mCurrentPage);
+    private PdfRenderScheduler.RenderTask submit(PdfRenderScheduler.RenderTask task) {
+        PdfRenderScheduler.RenderTask submitted = mRenderScheduler.submit(task);
+        if (submitted == task) {
+            //完成回调在主线程执行，这里也在主线程，不会错过
+            task.addOnRenderListener(mMetricsRenderListener);
+        }
+        return submitted;
+    }
+
+    /**
+     * attach之后第一次显示出页面
+     */
+    private void onPageShown() {
+        if (isFirstPageShown) {
+            return;
+        }
+        isFirstPageShown = true;
+        long timeToFirstPage = SystemClock.uptimeMillis() - mAttachTime;
+        mRenderMetrics.setTimeToFirstPage(timeToFirstPage);
+        if (mRenderMetricsListener != null) {
+            mRenderMetricsListener.onFirstPage(timeToFirstPage);
+        }
+    }
+
+    private void recordRender(PdfRenderScheduler.RenderTask task, boolean cancelled) {
+        int type;
+        int position;
+        long pixels;
+        boolean stale = false;
+        boolean cacheHit = false;
+        if (task instanceof PageRenderTask) {
+            PageRenderTask pageTask = (PageRenderTask) task;
+            type = RenderMetrics.TYPE_BASE;
+            position = pageTask.mPosition;
+            pixels = pageTask.mPixels;
+            cacheHit = pageTask.isDiskCacheHit;
+        } else if (task instanceof PartRenderTask) {
+            PartRenderTask partTask = (PartRenderTask) task;
+            type = RenderMetrics.TYPE_PART;
+            position = partTask.mPosition;
+            pixels = partTask.mClip != null ? (long) partTask.mClip.width() * partTask.mClip.height() : pixelsOf(partTask.mBitmap);
+            stale = partTask.isStale;
+        } else {
+            return;
+        }
+        recordSample(new RenderMetrics.Sample(type, position, pixels, task.getQueueWaitNanos(), task.getRenderNanos(),
+                cancelled, stale, cacheHit));
+    }
+
+    private void recordSample(RenderMetrics.Sample sample) {
+        mRenderMetrics.record(sample);
+        if (mRenderMetricsListener != null) {
+            mRenderMetricsListener.onRender(sample);
+        }
+    }
+
+    private static long pixelsOf(Bitmap bitmap) {
+        return bitmap == null ? 0 : (long) bitmap.getWidth() * bitmap.getHeight();
+    }
+
+    /**
+     * 页面被销毁，丢弃还没完成的渲染
+     */
+    private void cancelPageTask(int position) {
+        PdfRenderScheduler.RenderTask task = mPageTasks.get(position);
+        if (task != null) {
+            mPageTasks.remove(position);
+            if (mRenderScheduler != null) {
+                mRenderScheduler.cancel(task);
+            }
+        }
+    }
+
+    /**
+     * 页面不再显示，释放对缓存页面的占用
+     */
+    private void recycleImageView(PdfScaleImageView imageView) {
+        Bitmap bitmap = imageView.getSourceBitmap();
+        imageView.recycle();
+        if (bitmap != null) {
+            mPageCache.release(bitmap);
         }
     }
 
     @Override
     public void onPageScrolled(int i, float v, int i1) {
+        int direction;
+        if (i == mCurrentPosition && v > PREFETCH_OFFSET_THRESHOLD) {
+            direction = 1;
+        } else if (i < mCurrentPosition && v < 1 - PREFETCH_OFFSET_THRESHOLD) {
+            direction = -1;
+        } else {
+            return;
+        }
+        if (direction != mPrefetchDirection || mPrefetchAnchor != mCurrentPosition) {
+            prefetch(mCurrentPosition, direction);
+        }
+    }
+
+    /**
+     * 沿滑动方向预取，跳过ViewPager已经创建的相邻页，取消窗口之外的预取
+     */
+    private void prefetch(int position, int direction) {
+        mPrefetchDirection = direction;
+        mPrefetchAnchor = position;
+        int depth = prefetchBudget();
+        cancelPrefetch(position, depth * direction);
+        if (mRenderScheduler == null || depth == 0) {
+            return;
+        }
+        int width = mPreviewPdfView.getWidth();
+        int height = mPreviewPdfView.getHeight();
+        if (width == 0 || height == 0) {
+            return;
+        }
+        int orientation = mContext.getResources().getConfiguration().orientation;
+        float resolution = renderResolution();
+        for (int k = 1; k <= depth; k++) {
+            final int page = position + direction * (k + 1);
+            if (page < 0 || page >= mPdfPageCount) {
+                break;
+            }
+            if (mPrefetchTasks.get(page) != null || mPageTasks.get(page) != null
+                    || isPageCached(page, width, height, orientation, resolution)) {
+                continue;
+            }
+            PdfRenderScheduler.RenderTask task = new PageRenderTask(page, width, height, orientation, resolution,
+                    PdfRenderScheduler.PRIORITY_NEIGHBOUR_PAGE);
+            task.addOnRenderListener(new PdfRenderScheduler.OnRenderListener() {
+                @Override
+                public void onRenderComplete(PdfRenderScheduler.RenderTask task, Bitmap bitmap) {
+                    if (mPrefetchTasks.get(page) == task) {
+                        mPrefetchTasks.remove(page);
+                    }
+                    if (bitmap == null) {
+                        return;
+                    }
+                    if (!isAttached) {
+                        BitmapPool.getInstance().put(bitmap);
+                        return;
+                    }
+                    PageRenderTask pageTask = (PageRenderTask) task;
+                    persistPage(pageTask, bitmap);
+                    mPageCache.put(new PdfPageCache.Key(mDocumentId, page, pageTask.mPdfScale, pageTask.mOrientation), bitmap);
+                    if (pageTask.mThumbnail != null) {
+                        mThumbnailCache.put(page, pageTask.mThumbnail);
+                    }
+                }
+
+                @Override
+                public void onRenderCancelled(PdfRenderScheduler.RenderTask task) {
+                    if (mPrefetchTasks.get(page) == task) {
+                        mPrefetchTasks.remove(page);
+                    }
+                }
+            });
+            mPrefetchTasks.put(page, submit(task));
+        }
+    }
+
+    /**
+     * 缓存除了常驻的几页之外还能放下的页数，放不下时不预取，避免挤掉正在显示的页面
+     */
+    private int prefetchBudget() {
+        if (mPrefetchDepth == 0 || mPreviewPdfView == null
+                || RenderMemoryBudget.getInstance().getLevel() >= RenderMemoryBudget.LEVEL_NO_PREFETCH) {
+            return 0;
+        }
+        long pageBytes = (long) mPreviewPdfView.getWidth() * mPreviewPdfView.getHeight() * 4;
+        if (pageBytes == 0) {
+            return 0;
+        }
+        long capacity = mPageCache.maxSize() / pageBytes - RESIDENT_PAGES;
+        return (int) Math.max(0, Math.min(mFrameTimeGovernor.getPrefetchDepth(mPrefetchDepth), capacity));
+    }
+
+    private boolean isPageCached(int position, int width, int height, int orientation, float resolution) {
+        if (!mPageIndex.hasPageSize(position)) {
+            return false;
+        }
+        float pdfScale = getPageScale(position, width, height, orientation, resolution);
+        return mPageCache.get(new PdfPageCache.Key(mDocumentId, position, pdfScale, orientation)) != null;
+    }
+
+    /**
+     * 页面底图的渲染缩放比，内存紧张时按预算降低分辨率，页面尺寸必须已知
+     */
+    private float getPageScale(int position, int width, int height, int orientation, float resolution) {
+        return PdfScaleImageView.computePdfScale(width, height,
+                mPageIndex.getPageWidth(position), mPageIndex.getPageHeight(position), orientation) * resolution;
+    }
+
+    /**
+     * 取消不在当前预取窗口内的预取
+     *
+     * @param window 预取窗口，正数向后，负数向前
+     */
+    private void cancelPrefetch(int position, int window) {
+        int from = window >= 0 ? position + 2 : position + window - 1;
+        int to = window >= 0 ? position + window + 1 : position - 2;
+        for (int i = mPrefetchTasks.size() - 1; i >= 0; i--) {
+            int page = mPrefetchTasks.keyAt(i);
+            if (window == 0 || page < from || page > to) {
+                PdfRenderScheduler.RenderTask task = mPrefetchTasks.valueAt(i);
+                mPrefetchTasks.removeAt(i);
+                //页面已经在显示时，预取请求被合并，不能取消
+                if (mRenderScheduler != null && mPageTasks.get(page) != task) {
+                    mRenderScheduler.cancel(task);
+                }
+            }
+        }
     }
 
     @Override
@@ -123,6 +783,10 @@ public class PdfViewPagerHelper implements ViewPager.OnPageChangeListener,
         if (mPdfPagerAdapter != null && mPdfPagerAdapter.getCurrentPdfImageView() != null) {
             mPdfPagerAdapter.getCurrentPdfImageView().reset(false);
         }
+        if (mPrefetchDirection != 0) {
+            //沿原方向继续预取
+            prefetch(i, mPrefetchDirection);
+        }
     }
 
     @Override
@@ -133,33 +797,115 @@ public class PdfViewPagerHelper implements ViewPager.OnPageChangeListener,
      * 加载补丁
      */
     @Override
-    public void onLoad(PdfScaleImageView imageView, Bitmap bitmap, int renderMode) {
-        if (mPdfRenderer == null || bitmap == null) {
-            return;
+    public boolean onLoad(PdfScaleImageView imageView, Bitmap bitmap, Rect clip, Matrix matrix, int generation, int renderMode) {
+        return renderPart(imageView, bitmap, clip, matrix, generation, renderMode);
+    }
+
+    /**
+     * 加载tile
+     */
+    @Override
+    public boolean onLoadTile(PdfScaleImageView imageView, Bitmap bitmap, Matrix matrix, int generation, int renderMode) {
+        return renderPart(imageView, bitmap, null, matrix, generation, renderMode);
+    }
+
+    private boolean renderPart(PdfScaleImageView imageView, Bitmap bitmap, Rect clip, Matrix matrix, int generation, int renderMode) {
+        PdfRenderScheduler scheduler = mRenderScheduler;
+        //页码取发起请求的view，滑动过程中当前页可能已经变成另一页
+        int position = imageView.getPageIndex();
+        if (scheduler == null || bitmap == null || position < 0) {
+            return false;
         }
-        PdfRenderer.Page pdfPage = getPdfPage(mCurrentPosition);
-        if (pdfPage != null) {
-            pdfPage.render(bitmap, null, imageView.getPartMatrix(), renderMode);
+        PdfRenderScheduler.RenderTask task = new PartRenderTask(position, imageView, generation, bitmap, clip,
+                matrix, renderMode).addOnRenderListener(mMetricsRenderListener);
+        return scheduler.renderAndWait(task).getResult() != null;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if ((level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_CRITICAL) && mPdfPagerAdapter != null
+                && mPdfPagerAdapter.getCurrentPdfImageView() != null) {
+            //界面不可见或者内存极度紧张，释放保留的补丁
+            mPdfPagerAdapter.getCurrentPdfImageView().releasePart();
         }
+        //由内存预算统一降级，降级回调见onLevelChanged
+        RenderMemoryBudget.getInstance().onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        RenderMemoryBudget.getInstance().onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * 内存预算降级：减少并行渲染，停止预取，清空缓存，之后渲染的页面降低分辨率
+     */
+    @Override
+    public void onLevelChanged(int level) {
+        if (mRenderScheduler != null) {
+            mRenderScheduler.setParallelism(PdfRenderScheduler.parallelismFor(mRenderScheduler.getPoolSize(), level));
+        }
+        if (level >= RenderMemoryBudget.LEVEL_NO_PREFETCH) {
+            cancelPrefetch(mCurrentPosition, 0);
+        }
+        if (level >= RenderMemoryBudget.LEVEL_NO_CACHE) {
+            mPageCache.evictAll();
+            mThumbnailCache.evictAll();
+            if (mOverviewCache != null) {
+                cancelThumbnails();
+                mOverviewCache.clear();
+            }
+            BitmapPool.getInstance().clear();
+        }
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
     }
 
     /**
      * close PDF IO object
      */
     public void close() {
-        if (mCurrentPage != null) {
-            mCurrentPage.close();
+        if (mOpenTask != null) {
+            //还在打开的文档由任务自己关闭
+            mOpenTask.cancel(false);
+            mOpenTask = null;
         }
-        if (mPdfRenderer != null) {
-            mPdfRenderer.close();
+        if (isAttached) {
+            mContext.getApplicationContext().unregisterComponentCallbacks(this);
+            RenderMemoryBudget.getInstance().removeOnLevelChangeListener(this);
         }
-        if (mFileDescriptor != null) {
-            try {
-                mFileDescriptor.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+        if (mDocumentView != null) {
+            mDocumentView.setDocument(null, null);
+            mDocumentView = null;
+        }
+        if (mRenderScheduler != null) {
+            //通过调度器取消，排队中的请求直接出队，正在渲染的结果由任务放回复用池
+            for (int i = 0; i < mPageTasks.size(); i++) {
+                mRenderScheduler.cancel(mPageTasks.valueAt(i));
+            }
+            for (int i = 0; i < mPrefetchTasks.size(); i++) {
+                mRenderScheduler.cancel(mPrefetchTasks.valueAt(i));
             }
         }
+        mPageTasks.clear();
+        mPrefetchTasks.clear();
+        cancelThumbnails();
+        mPageCache.evictAll();
+        mThumbnailCache.evictAll();
+        if (mOverviewCache != null) {
+            mOverviewCache.clear();
+        }
+        if (mDiskCache != null) {
+            mDiskCache.flush();
+            mDiskCache = null;
+        }
+        if (mRenderScheduler != null) {
+            //渲染线程处理完当前请求后关闭renderer和文件
+            mRenderScheduler.shutdown();
+            mRenderScheduler = null;
+        }
         isAttached = false;
     }
 
@@ -168,7 +914,7 @@ public class PdfViewPagerHelper implements ViewPager.OnPageChangeListener,
 
         @Override
         public int getCount() {
-            return mPdfRenderer != null ? mPdfRenderer.getPageCount() : 0;
+            return mPdfPageCount;
         }
 
         @Override
@@ -179,8 +925,10 @@ public class PdfViewPagerHelper implements ViewPager.OnPageChangeListener,
         @Override
         public void destroyItem(@NonNull ViewGroup container, int position, @NonNull Object object) {
             container.removeView((View) object);
+            cancelPageTask(position);
             if (object instanceof PdfScaleImageView) {
-                ((PdfScaleImageView) object).recycle();
+                //页面底图留在缓存中，补丁放回复用池
+                recycleImageView((PdfScaleImageView) object);
             }
         }
 
@@ -202,8 +950,13 @@ public class PdfViewPagerHelper implements ViewPager.OnPageChangeListener,
             final PdfScaleImageView imageView = new PdfScaleImageView(mContext);
             imageView.setLayoutParams(new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
             container.addView(imageView);
+            imageView.setPageIndex(position);
             imageView.setPanLimit(PdfScaleImageView.PAN_LIMIT_INSIDE);
             imageView.setMaxScale(15f);
+            imageView.setTileRenderingEnabled(mTileRenderingEnabled);
+            imageView.setTileParallelism(mRenderScheduler.getPoolSize());
+            imageView.setPartResolution(mFrameTimeGovernor.getPartResolution());
+            imageView.setOnFrameTimeListener(mFrameTimeGovernor);
             imageView.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
@@ -230,6 +983,330 @@ public class PdfViewPagerHelper implements ViewPager.OnPageChangeListener,
         }
     }
 
+    /**
+     * 后台打开文档：打开文件、磁盘缓存，创建PdfRenderer并建立页面尺寸索引
+     */
+    private class OpenTask extends AsyncTask<Void, Void, IOException> {
+        private final ViewPager mViewPager;
+        private final PdfDocumentView mDocumentView;
+        private final PdfSource mSource;
+        private final OnOpenListener mListener;
+        private final long mDiskCacheSize;
+        private ParcelFileDescriptor mFileDescriptor;
+        private PdfRenderer mRenderer;
+        private PdfPageIndex mIndex;
+        //后台打开，onPostExecute在主线程交给helper
+        private PdfDiskCache mDiskCache;
+        private String mFingerprint;
+
+        OpenTask(ViewPager viewPager, PdfDocumentView documentView, PdfSource source, OnOpenListener listener) {
+            this.mViewPager = viewPager;
+            this.mDocumentView = documentView;
+            this.mSource = source;
+            this.mListener = listener;
+            this.mDiskCacheSize = PdfViewPagerHelper.this.mDiskCacheSize;
+        }
+
+        @Override
+        protected IOException doInBackground(Void... voids) {
+            try {
+                mFileDescriptor = mSource.open(mContext);
+                if (mFileDescriptor == null) {
+                    return new IOException("can not open " + mSource.getDocumentId());
+                }
+                mRenderer = new PdfRenderer(mFileDescriptor);
+                mIndex = PdfPageIndex.build(mRenderer);
+                if (mDiskCacheSize > 0) {
+                    mFingerprint = fingerprintOf(mFileDescriptor);
+                    if (mFingerprint != null) {
+                        mDiskCache = openDiskCache(mContext, mDiskCacheSize);
+                    }
+                }
+                return null;
+            } catch (IOException e) {
+                closeQuietly();
+                return e;
+            } catch (RuntimeException e) {
+                //文件损坏时PdfRenderer抛出的异常不一定是IOException
+                closeQuietly();
+                return new IOException(e);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(IOException e) {
+            if (mOpenTask == this) {
+                mOpenTask = null;
+            }
+            if (e != null) {
+                if (mListener != null) {
+                    mListener.onOpenFailed(e);
+                }
+                return;
+            }
+            setDiskCache(mDiskCache, mFingerprint);
+            if (mViewPager != null) {
+                attach(mViewPager, mSource.getDocumentId(), mRenderer, mFileDescriptor, mIndex);
+            } else {
+                attach(mDocumentView, mSource.getDocumentId(), mRenderer, mFileDescriptor, mIndex);
+            }
+            if (mListener != null) {
+                mListener.onOpened(mIndex);
+            }
+        }
+
+        @Override
+        protected void onCancelled(IOException e) {
+            closeQuietly();
+        }
+
+        private void closeQuietly() {
+            if (mRenderer != null) {
+                mRenderer.close();
+                mRenderer = null;
+            }
+            if (mFileDescriptor != null) {
+                try {
+                    mFileDescriptor.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                mFileDescriptor = null;
+            }
+        }
+    }
+
+    /**
+     * 整页渲染，在渲染线程依次查找磁盘缓存、打开页面渲染
+     */
+    private class PageRenderTask extends PdfRenderScheduler.RenderTask {
+        private final int mPosition;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mOrientation;
+        //内存预算降低的分辨率
+        private final float mResolution;
+        private volatile float mPdfScale;
+        private volatile Bitmap mThumbnail;
+        private volatile long mPixels;
+        private volatile boolean isDiskCacheHit;
+        //创建时在主线程取得，close之后重新attach也不会把旧文档的页面写到新文档的指纹下
+        //降低分辨率的页面不使用磁盘缓存
+        private final PdfDiskCache mDiskCache;
+        private final long mDiskKey;
+        private volatile float mPageWidth;
+        private volatile float mPageHeight;
+        //主线程使用
+        private boolean isPersisted;
+
+        PageRenderTask(int position, int width, int height, int orientation, float resolution, int priority) {
+            super(priority, "page:" + position + ":" + width + "x" + height + ":" + orientation + ":" + resolution);
+            this.mPosition = position;
+            this.mWidth = width;
+            this.mHeight = height;
+            this.mOrientation = orientation;
+            this.mResolution = resolution;
+            PdfDiskCache diskCache = PdfViewPagerHelper.this.mDiskCache;
+            this.mDiskCache = resolution == 1f ? diskCache : null;
+            this.mDiskKey = mDiskCache != null
+                    ? PdfDiskCache.key(mFingerprint, position, PdfDiskCache.KIND_PAGE, width, height, orientation) : 0;
+        }
+
+        @Override
+        protected Bitmap onRender(PdfRenderScheduler.RenderContext context) {
+            PdfDiskCache diskCache = mDiskCache;
+            long diskKey = mDiskKey;
+            if (diskCache != null) {
+                //磁盘索引中记录了缩放比和页面尺寸，命中时不需要打开页面
+                float[] info = new float[3];
+                if (diskCache.getInfo(diskKey, info)) {
+                    Bitmap bitmap = diskCache.get(diskKey);
+                    if (bitmap != null) {
+                        isDiskCacheHit = true;
+                        mPixels = pixelsOf(bitmap);
+                        mPdfScale = info[0];
+                        setPageSize(mPosition, info[1], info[2]);
+                        mThumbnail = createThumbnail(bitmap);
+                        return bitmap;
+                    }
+                }
+            }
+            PdfRenderer.Page page = context.openPage(mPosition);
+            if (page == null) {
+                return null;
+            }
+            setPageSize(mPosition, page.getWidth(), page.getHeight());
+            mPdfScale = PdfScaleImageView.computePdfScale(mWidth, mHeight, page.getWidth(), page.getHeight(), mOrientation) * mResolution;
+            Bitmap bitmap = PdfScaleImageView.renderPdfPage(page, mPdfScale);
+            mPixels = pixelsOf(bitmap);
+            //磁盘缓存在结果交付之后由persistPage写入
+            mPageWidth = page.getWidth();
+            mPageHeight = page.getHeight();
+            mThumbnail = createThumbnail(bitmap);
+            return bitmap;
+        }
+    }
+
+    /**
+     * 新渲染的页面交给磁盘缓存的写线程，先显示再写入。写完之前占用页面缓存，
+     * 期间被淘汰也不会放回复用池，需要在放入页面缓存之前调用
+     */
+    private void persistPage(PageRenderTask task, final Bitmap bitmap) {
+        //相同页面的请求合并时每个回调都会收到同一个结果
+        if (task.mDiskCache == null || task.isDiskCacheHit || task.isPersisted) {
+            return;
+        }
+        task.isPersisted = true;
+        final PdfPageCache pageCache = mPageCache;
+        pageCache.retain(bitmap);
+        task.mDiskCache.putAsync(task.mDiskKey, bitmap, task.mPdfScale, task.mPageWidth, task.mPageHeight,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        pageCache.release(bitmap);
+                    }
+                });
+    }
+
+    /**
+     * 缩略图很小，不放入复用池，由gc回收，避免占位显示期间被复用
+     */
+    private static Bitmap createThumbnail(Bitmap bitmap) {
+        int width = Math.max(1, bitmap.getWidth() / THUMBNAIL_SAMPLE);
+        int height = Math.max(1, bitmap.getHeight() / THUMBNAIL_SAMPLE);
+        Bitmap thumbnail = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        RenderMemoryBudget.getInstance().track(thumbnail);
+        return thumbnail;
+    }
+
+    private void setPageSize(int position, float width, float height) {
+        mPageIndex.setPageSize(position, width, height);
+    }
+
+    /**
+     * 补丁、tile渲染，bitmap由调用方持有，开始前视口已经变化时跳过
+     */
+    private static class PartRenderTask extends PdfRenderScheduler.RenderTask {
+        private final int mPosition;
+        private final PdfScaleImageView mImageView;
+        private final int mGeneration;
+        private final Bitmap mBitmap;
+        private final Rect mClip;
+        private final Matrix mMatrix;
+        private final int mRenderMode;
+        private volatile boolean isStale;
+
+        PartRenderTask(int position, PdfScaleImageView imageView, int generation, Bitmap bitmap, Rect clip,
+                       Matrix matrix, int renderMode) {
+            super(PdfRenderScheduler.PRIORITY_VISIBLE_PART, null);
+            this.mPosition = position;
+            this.mImageView = imageView;
+            this.mGeneration = generation;
+            this.mBitmap = bitmap;
+            this.mClip = clip;
+            this.mMatrix = matrix;
+            this.mRenderMode = renderMode;
+        }
+
+        @Override
+        protected Bitmap onRender(PdfRenderScheduler.RenderContext context) {
+            if (!mImageView.isViewportCurrent(mGeneration)) {
+                isStale = true;
+                return null;
+            }
+            PdfRenderer.Page page = context.openPage(mPosition);
+            if (page == null) {
+                return null;
+            }
+            page.render(mBitmap, mClip, mMatrix, mRenderMode);
+            return mBitmap;
+        }
+
+        @Override
+        protected void onDiscard(Bitmap result) {
+            //调用方负责归还
+        }
+    }
+
+    /**
+     * 概览缩略图批次，一次打开多页渲染到图集的格子里，减少排队和切换的开销
+     */
+    private static class ThumbnailBatchTask extends PdfRenderScheduler.RenderTask {
+        private final PdfThumbnailCache mCache;
+        private final int mStart;
+        private final PdfThumbnailCache.Atlas[] mAtlases;
+
+        ThumbnailBatchTask(PdfThumbnailCache cache, int start, int end) {
+            super(PdfRenderScheduler.PRIORITY_THUMBNAIL, "thumbs:" + start);
+            this.mCache = cache;
+            this.mStart = start;
+            this.mAtlases = new PdfThumbnailCache.Atlas[end - start];
+        }
+
+        @Override
+        protected Bitmap onRender(PdfRenderScheduler.RenderContext context) {
+            Bitmap result = null;
+            for (int i = 0; i < mAtlases.length && !isCancelled(); i++) {
+                int position = mStart + i;
+                if (mCache.isRendered(position)) {
+                    continue;
+                }
+                PdfRenderer.Page page = context.openPage(position);
+                if (page == null) {
+                    continue;
+                }
+                mAtlases[i] = mCache.render(page, position);
+                result = mAtlases[i].getBitmap();
+            }
+            return result;
+        }
+
+        /**
+         * 主线程标记渲染完成的页面并通知刷新
+         */
+        void publish() {
+            boolean isUpdated = false;
+            for (int i = 0; i < mAtlases.length; i++) {
+                if (mAtlases[i] != null) {
+                    mCache.markRendered(mStart + i, mAtlases[i]);
+                    isUpdated = true;
+                }
+            }
+            if (isUpdated) {
+                mCache.notifyUpdated();
+            }
+        }
+
+        @Override
+        protected void onDiscard(Bitmap result) {
+            //图集由缓存持有
+        }
+    }
+
+    /**
+     * 渲染统计回调，主线程执行
+     */
+    public interface RenderMetricsListener {
+        /**
+         * 一次渲染结束，包括取消、过期和缓存命中
+         */
+        void onRender(RenderMetrics.Sample sample);
+
+        /**
+         * attach之后显示出第一页，毫秒
+         */
+        void onFirstPage(long timeToFirstPage);
+    }
+
+    /**
+     * 异步打开结果，主线程回调
+     */
+    public interface OnOpenListener {
+        void onOpened(PdfPageIndex pageIndex);
+
+        void onOpenFailed(IOException e);
+    }
+
     public interface PdfPageListener {
         void onPageSelected(int i);
 
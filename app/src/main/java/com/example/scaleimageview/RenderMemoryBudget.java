@@ -0,0 +1,244 @@
+package com.example.scaleimageview;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 渲染内存预算，进程内唯一
+ * 记录本库申请的所有bitmap（弱引用，被gc回收后通过引用队列扣除），总量接近上限或者收到onTrimMemory时逐级降级：
+ * 停止预取 -> 清空缓存 -> 降低底图分辨率。降级通过监听在主线程通知各个使用方执行。
+ */
+public class RenderMemoryBudget {
+    public static final int LEVEL_NORMAL = 0;
+    public static final int LEVEL_NO_PREFETCH = 1;
+    public static final int LEVEL_NO_CACHE = 2;
+    public static final int LEVEL_LOW_RESOLUTION = 3;
+
+    //进入各级的占用比例
+    private static final float[] ENTER_RATIOS = {0f, 0.75f, 0.9f, 1f};
+    //退出各级的占用比例，低于进入比例，避免在临界值来回切换
+    private static final float[] EXIT_RATIOS = {0f, 0.6f, 0.75f, 0.85f};
+    //onTrimMemory带来的降级维持时间，到期后重新检查
+    private static final long TRIM_LEVEL_DURATION = 30 * 1000;
+    //降低分辨率时底图的缩放
+    private static final float LOW_RESOLUTION_SCALE = 0.5f;
+
+    private static RenderMemoryBudget sInstance;
+
+    //bitmap到记录的弱引用，引用记下申请时的字节数
+    private final Map<Bitmap, TrackedBitmap> mBitmaps = new WeakHashMap<>();
+    private final ReferenceQueue<Bitmap> mCollected = new ReferenceQueue<>();
+    //当前记录的总字节数，申请、回收和gc时增减，不需要遍历
+    private long mAllocatedSize;
+    private final List<OnLevelChangeListener> mListeners = new CopyOnWriteArrayList<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private long mMaxSize;
+    private int mLevel = LEVEL_NORMAL;
+    private int mTrimLevel = LEVEL_NORMAL;
+    private long mTrimTime;
+    //onTrimMemory的降级到期后即使没有新的申请也重新计算
+    private final Runnable mTrimExpiredCheck = new Runnable() {
+        @Override
+        public void run() {
+            check();
+        }
+    };
+
+    public static synchronized RenderMemoryBudget getInstance() {
+        if (sInstance == null) {
+            sInstance = new RenderMemoryBudget();
+        }
+        return sInstance;
+    }
+
+    private RenderMemoryBudget() {
+        mMaxSize = Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    /**
+     * 上限为最大可用内存的百分比，默认25%
+     */
+    public void setMaxPercent(int percent) {
+        setMaxSize(Runtime.getRuntime().maxMemory() * percent / 100);
+    }
+
+    /**
+     * 上限字节数
+     */
+    public void setMaxSize(long maxSize) {
+        synchronized (this) {
+            mMaxSize = maxSize;
+        }
+        check();
+    }
+
+    public synchronized long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * 记录新申请的bitmap
+     */
+    public void track(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        synchronized (this) {
+            pollCollected();
+            if (!mBitmaps.containsKey(bitmap)) {
+                TrackedBitmap tracked = new TrackedBitmap(bitmap, mCollected);
+                mBitmaps.put(bitmap, tracked);
+                mAllocatedSize += tracked.byteCount;
+            }
+        }
+        check();
+    }
+
+    /**
+     * bitmap已经回收
+     */
+    public synchronized void untrack(Bitmap bitmap) {
+        pollCollected();
+        TrackedBitmap tracked = mBitmaps.remove(bitmap);
+        if (tracked != null) {
+            //清除后不会再进入引用队列，不会重复扣除
+            tracked.clear();
+            mAllocatedSize -= tracked.byteCount;
+        }
+    }
+
+    /**
+     * 当前记录的bitmap总字节数
+     */
+    public synchronized long getAllocatedSize() {
+        pollCollected();
+        return mAllocatedSize;
+    }
+
+    /**
+     * 扣除已经被gc回收的bitmap
+     */
+    private void pollCollected() {
+        Reference<? extends Bitmap> reference;
+        while ((reference = mCollected.poll()) != null) {
+            mAllocatedSize -= ((TrackedBitmap) reference).byteCount;
+        }
+    }
+
+    public synchronized int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * 新渲染底图的分辨率缩放
+     */
+    public float getResolutionScale() {
+        return getLevel() >= LEVEL_LOW_RESOLUTION ? LOW_RESOLUTION_SCALE : 1f;
+    }
+
+    /**
+     * 系统内存紧张，按等级降级
+     */
+    public void onTrimMemory(int level) {
+        int trimLevel;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimLevel = LEVEL_LOW_RESOLUTION;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimLevel = LEVEL_NO_CACHE;
+        } else {
+            trimLevel = LEVEL_NO_PREFETCH;
+        }
+        synchronized (this) {
+            mTrimLevel = Math.max(trimLevel, mTrimTime != 0 ? mTrimLevel : LEVEL_NORMAL);
+            mTrimTime = SystemClock.uptimeMillis();
+        }
+        mMainHandler.removeCallbacks(mTrimExpiredCheck);
+        mMainHandler.postDelayed(mTrimExpiredCheck, TRIM_LEVEL_DURATION + 100);
+        check();
+    }
+
+    /**
+     * 重新计算降级等级，超过上限时先清空复用池
+     */
+    public void check() {
+        long allocated = getAllocatedSize();
+        long maxSize = getMaxSize();
+        if (allocated > maxSize && BitmapPool.getInstance().getCurrentSize() > 0) {
+            //复用池里都是闲置的bitmap，最先释放
+            BitmapPool.getInstance().clear();
+            allocated = getAllocatedSize();
+        }
+        final int level;
+        synchronized (this) {
+            float ratio = maxSize > 0 ? (float) allocated / maxSize : 0;
+            int usageLevel = LEVEL_NORMAL;
+            for (int i = ENTER_RATIOS.length - 1; i > 0; i--) {
+                if (ratio >= ENTER_RATIOS[i]) {
+                    usageLevel = i;
+                    break;
+                }
+            }
+            //占用下降到退出比例以下才降低等级
+            if (usageLevel < mLevel && ratio >= EXIT_RATIOS[mLevel]) {
+                usageLevel = mLevel;
+            }
+            if (mTrimTime != 0 && SystemClock.uptimeMillis() - mTrimTime > TRIM_LEVEL_DURATION) {
+                mTrimTime = 0;
+                mTrimLevel = LEVEL_NORMAL;
+            }
+            int newLevel = Math.max(usageLevel, mTrimLevel);
+            if (newLevel == mLevel) {
+                return;
+            }
+            mLevel = level = newLevel;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (OnLevelChangeListener listener : mListeners) {
+                    listener.onLevelChanged(level);
+                }
+            }
+        });
+    }
+
+    public void addOnLevelChangeListener(OnLevelChangeListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeOnLevelChangeListener(OnLevelChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RenderMemoryBudget[allocated=" + getAllocatedSize() + ",maxSize=" + mMaxSize + ",level=" + mLevel + "]";
+    }
+
+    private static final class TrackedBitmap extends WeakReference<Bitmap> {
+        private final int byteCount;
+
+        TrackedBitmap(Bitmap bitmap, ReferenceQueue<Bitmap> queue) {
+            super(bitmap, queue);
+            this.byteCount = bitmap.getByteCount();
+        }
+    }
+
+    /**
+     * 降级等级变化，主线程回调
+     */
+    public interface OnLevelChangeListener {
+        void onLevelChanged(int level);
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.scaleimageview;
+
+import java.util.Locale;
+
+/**
+ * 渲染耗时统计
+ * 整页底图和补丁(含tile)分开统计，每类记录排队时间和渲染时间的分位数直方图，以及取消、过期、缓存命中次数。
+ * 直方图是固定大小的对数分桶，记录只是一次数组自增，可以一直开着。
+ */
+public class RenderMetrics {
+    public static final int TYPE_BASE = 0;
+    public static final int TYPE_PART = 1;
+    private static final String[] TYPE_NAMES = {"base", "part"};
+
+    private final Histogram[] mRenderTimes = {new Histogram(), new Histogram()};
+    private final Histogram[] mQueueWaits = {new Histogram(), new Histogram()};
+    private final long[] mCounts = new long[2];
+    private final long[] mCancelledCounts = new long[2];
+    private final long[] mStaleCounts = new long[2];
+    private final long[] mCacheHitCounts = new long[2];
+    //-1 还没有显示第一页
+    private long mTimeToFirstPage = -1;
+
+    /**
+     * 只有实际执行完成的渲染计入直方图，取消、过期、缓存命中只计数
+     */
+    public synchronized void record(Sample sample) {
+        int type = sample.type;
+        mCounts[type]++;
+        if (sample.cancelled) {
+            mCancelledCounts[type]++;
+        } else if (sample.stale) {
+            mStaleCounts[type]++;
+        } else if (sample.cacheHit) {
+            mCacheHitCounts[type]++;
+        } else {
+            mRenderTimes[type].record(sample.renderTimeNanos / 1000);
+            mQueueWaits[type].record(sample.queueWaitNanos / 1000);
+        }
+    }
+
+    synchronized void setTimeToFirstPage(long millis) {
+        mTimeToFirstPage = millis;
+    }
+
+    /**
+     * attach之后显示出第一页的时间，毫秒，-1 还没有显示
+     */
+    public synchronized long getTimeToFirstPage() {
+        return mTimeToFirstPage;
+    }
+
+    /**
+     * 渲染时间直方图，微秒
+     */
+    public Histogram getRenderTimes(int type) {
+        return mRenderTimes[type];
+    }
+
+    /**
+     * 排队时间直方图，微秒
+     */
+    public Histogram getQueueWaits(int type) {
+        return mQueueWaits[type];
+    }
+
+    public synchronized void reset() {
+        for (int type = TYPE_BASE; type <= TYPE_PART; type++) {
+            mRenderTimes[type].reset();
+            mQueueWaits[type].reset();
+            mCounts[type] = 0;
+            mCancelledCounts[type] = 0;
+            mStaleCounts[type] = 0;
+            mCacheHitCounts[type] = 0;
+        }
+        mTimeToFirstPage = -1;
+    }
+
+    /**
+     * 输出当前统计，毫秒
+     */
+    public synchronized String dump() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("timeToFirstPage=").append(mTimeToFirstPage).append("ms\n");
+        for (int type = TYPE_BASE; type <= TYPE_PART; type++) {
+            Histogram render = mRenderTimes[type];
+            Histogram wait = mQueueWaits[type];
+            builder.append(String.format(Locale.US,
+                    "%s: count=%d cancelled=%d stale=%d cacheHit=%d"
+                            + " render p50=%.2f p95=%.2f p99=%.2f max=%.2f"
+                            + " wait p50=%.2f p95=%.2f p99=%.2f\n",
+                    TYPE_NAMES[type], mCounts[type], mCancelledCounts[type], mStaleCounts[type], mCacheHitCounts[type],
+                    render.percentile(0.5) / 1000f, render.percentile(0.95) / 1000f,
+                    render.percentile(0.99) / 1000f, render.getMax() / 1000f,
+                    wait.percentile(0.5) / 1000f, wait.percentile(0.95) / 1000f, wait.percentile(0.99) / 1000f));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return dump();
+    }
+
+    /**
+     * 一次渲染的统计，主线程回调
+     */
+    public static class Sample {
+        public final int type;
+        public final int page;
+        public final long pixels;
+        public final long queueWaitNanos;
+        public final long renderTimeNanos;
+        public final boolean cancelled;
+        //开始渲染前视口已经变化，跳过
+        public final boolean stale;
+        public final boolean cacheHit;
+
+        Sample(int type, int page, long pixels, long queueWaitNanos, long renderTimeNanos,
+               boolean cancelled, boolean stale, boolean cacheHit) {
+            this.type = type;
+            this.page = page;
+            this.pixels = pixels;
+            this.queueWaitNanos = queueWaitNanos;
+            this.renderTimeNanos = renderTimeNanos;
+            this.cancelled = cancelled;
+            this.stale = stale;
+            this.cacheHit = cacheHit;
+        }
+
+        @Override
+        public String toString() {
+            return "Sample[" + TYPE_NAMES[type] + ",page=" + page + ",pixels=" + pixels
+                    + ",wait=" + queueWaitNanos / 1000 + "us,render=" + renderTimeNanos / 1000 + "us"
+                    + (cancelled ? ",cancelled" : "") + (stale ? ",stale" : "") + (cacheHit ? ",cacheHit" : "") + "]";
+        }
+    }
+
+    /**
+     * 对数分桶直方图
+     * 每个2的幂区间再均分成8个桶，分位数的相对误差不超过12.5%，占用固定的几KB内存
+     */
+    public static class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        //超过2^40微秒(约12天)的值按上限记录
+        private static final int MAX_EXPONENT = 40;
+        private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+        private final long[] mBuckets = new long[(MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS];
+        private long mCount;
+        private long mMax;
+
+        public synchronized void record(long value) {
+            value = Math.max(0, Math.min(MAX_VALUE, value));
+            mBuckets[indexOf(value)]++;
+            mCount++;
+            mMax = Math.max(mMax, value);
+        }
+
+        public synchronized long getCount() {
+            return mCount;
+        }
+
+        public synchronized long getMax() {
+            return mMax;
+        }
+
+        /**
+         * @param percentile 0 ~ 1
+         * @return 所在桶的上界，不超过最大值，没有数据时为0
+         */
+        public synchronized long percentile(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(percentile * mCount));
+            long seen = 0;
+            for (int i = 0; i < mBuckets.length; i++) {
+                seen += mBuckets[i];
+                if (seen >= target) {
+                    return Math.min(mMax, upperBoundOf(i));
+                }
+            }
+            return mMax;
+        }
+
+        public synchronized void reset() {
+            for (int i = 0; i < mBuckets.length; i++) {
+                mBuckets[i] = 0;
+            }
+            mCount = 0;
+            mMax = 0;
+        }
+
+        private static int indexOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int shift = exponent - SUB_BUCKET_BITS;
+            int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+            return (shift + 1) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBoundOf(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            int sub = index % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+        }
+    }
+}
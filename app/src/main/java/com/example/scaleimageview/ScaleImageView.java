@@ -3,7 +3,6 @@ package com.example.scaleimageview;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.Paint;
@@ -11,18 +10,25 @@ import android.graphics.PixelFormat;
 import android.graphics.PointF;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.graphics.drawable.NinePatchDrawable;
+import android.os.Build;
+import android.os.SystemClock;
 import android.support.annotation.IdRes;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.util.TypedValue;
+import android.view.Choreographer;
+import android.view.Display;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewParent;
 
+import com.example.scaleimageview.viewport.ViewportEngine;
+
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -33,13 +39,16 @@ public class ScaleImageView extends View {
     private static final int VERTICAL_MIN_DISTANCE = 50;//发生fling最小坐标差
     private static final int FLING_MIN_VERTICAL = 500;//发生fling最小速度
     private static final int DEFAULT_ANIM_DURATION = 500;//动画执行时间
+    private static final long DEFAULT_FRAME_INTERVAL_NANOS = 1000000000L / 60;
+    //相邻两帧超过这么多个vsync视为中间有空闲（例如手指按住不动），不计入帧时间
+    private static final int MAX_FRAME_GAP_VSYNCS = 4;
     private static final int MIN_MOVE_VALUE = 5;//发生重绘阈值
     private static final int DEFAULT_THRESHOLD_VALUE_VALUE = 160;
     private static final int QUICK_SCALE_THRESHOLD_VALUE = 20;
     private static final float START_QUICK_SCALE_MIN_VALUE = 0.03f;
     //动画差值
-    public static final int EASE_OUT_QUAD = 1;
-    public static final int EASE_IN_OUT_QUAD = 2;
+    public static final int EASE_OUT_QUAD = ViewportEngine.EASE_OUT_QUAD;
+    public static final int EASE_IN_OUT_QUAD = ViewportEngine.EASE_IN_OUT_QUAD;
     private static final Set<Integer> VALID_EASING_STYLES = new HashSet<Integer>() {
         {
             add(EASE_OUT_QUAD);
@@ -49,9 +58,9 @@ public class ScaleImageView extends View {
     /**
      * 最小缩放比模式
      */
-    public static final int SCALE_TYPE_CENTER_INSIDE = 1;//默认值，选取bitmap与view宽高比最小的一个，并在另一个方向上居中
-    public static final int SCALE_TYPE_CENTER_CROP = 2;//选取bitmap与view宽高比最大的一个，并在另一个方向上居中
-    public static final int SCALE_TYPE_CUSTOM = 3;//使得view与bitmap两个方向上的缩放都大于minScale并小于maxScale
+    public static final int SCALE_TYPE_CENTER_INSIDE = ViewportEngine.SCALE_TYPE_CENTER_INSIDE;//默认值，选取bitmap与view宽高比最小的一个，并在另一个方向上居中
+    public static final int SCALE_TYPE_CENTER_CROP = ViewportEngine.SCALE_TYPE_CENTER_CROP;//选取bitmap与view宽高比最大的一个，并在另一个方向上居中
+    public static final int SCALE_TYPE_CUSTOM = ViewportEngine.SCALE_TYPE_CUSTOM;//使得view与bitmap两个方向上的缩放都大于minScale并小于maxScale
     private static final Set<Integer> VALID_SCALE_TYPES = new HashSet<Integer>() {
         {
             add(SCALE_TYPE_CENTER_INSIDE);
@@ -62,9 +71,9 @@ public class ScaleImageView extends View {
     /**
      * 滑动模式
      */
-    public static final int PAN_LIMIT_INSIDE = 1;//默认值，不允许在屏幕外平移图像
-    public static final int PAN_LIMIT_OUTSIDE = 2;//允许在屏幕外平移图像，最大图像边界与view边界对其
-    public static final int PAN_LIMIT_CENTER = 3;//允许在屏幕外平移图像，最大图像边界到view中心
+    public static final int PAN_LIMIT_INSIDE = ViewportEngine.PAN_LIMIT_INSIDE;//默认值，不允许在屏幕外平移图像
+    public static final int PAN_LIMIT_OUTSIDE = ViewportEngine.PAN_LIMIT_OUTSIDE;//允许在屏幕外平移图像，最大图像边界与view边界对其
+    public static final int PAN_LIMIT_CENTER = ViewportEngine.PAN_LIMIT_CENTER;//允许在屏幕外平移图像，最大图像边界到view中心
     private static final Set<Integer> VALID_PAN_LIMITS = new HashSet<Integer>() {
         {
             add(PAN_LIMIT_INSIDE);
@@ -86,21 +95,41 @@ public class ScaleImageView extends View {
         }
     };
     private int mDoubleTapZoomStyle = ZOOM_FOCUS_FIXED;
+    /**
+     * 动画来源，见{@link OnAnimationFrameStatsListener}
+     */
+    public static final int ORIGIN_ANIM = 1;
+    public static final int ORIGIN_FLING = 2;
+    public static final int ORIGIN_DOUBLE_TAP = 3;
 
     private float mDoubleTapZoomScale = 1F;
-    //最小scale规则
-    private int mMinimumScaleType = SCALE_TYPE_CENTER_INSIDE;
-    private int mPanLimit = PAN_LIMIT_INSIDE;
+    //缩放比、边界、差值计算，最小scale规则和滑动模式也保存在这里
+    private final ViewportEngine mEngine = new ViewportEngine();
     private OnAnimationEventListener mAnimationEventListener;
 
     //双击、fling动画
     private Anim mAnim;
     //当前位移
     private PointF vTranslate;
-    private ScaleAndTranslate mSatTemp;
-    private PointF vCenterStart;
-    private PointF vTranslateStart;
-    private PointF vTranslateBefore;
+    private final ViewportEngine.ScaleAndTranslate mSatTemp = new ViewportEngine.ScaleAndTranslate();
+    private final ViewportEngine.ScaleAndTranslate mSatEnd = new ViewportEngine.ScaleAndTranslate();
+    private final PointF vCenterStart = new PointF(0, 0);
+    private final PointF vTranslateStart = new PointF(0, 0);
+    private final PointF vTranslateBefore = new PointF(0, 0);
+    //手势、动画计算用的临时对象，避免每个事件都申请内存
+    private final PointF mTempPoint = new PointF();
+    private final Anim mAnimHolder = new Anim();
+    private AnimationBuilder mAnimationBuilder;
+    private final DefaultAnimationListener mDefaultAnimationListener = new DefaultAnimationListener();
+    //动画由vsync驱动：帧回调记录这一帧的时间并请求重绘，onDraw按帧时间计算动画进度
+    private Choreographer.FrameCallback mFrameCallback;
+    private boolean isFrameScheduled;
+    //当前帧的vsync时间，纳秒，0 不是由帧回调触发的绘制
+    private long mFrameTimeNanos;
+    private long mFrameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+    private OnAnimationFrameStatsListener mAnimationFrameStatsListener;
+    private int mLastAnimFramesDrawn;
+    private int mLastAnimFramesDropped;
     //缩放状态
     private boolean isZooming;
     //滑动状态
@@ -114,21 +143,42 @@ public class ScaleImageView extends View {
     private float mQuickScaleLastDistance;
     private final float mQuickScaleThreshold;
     private boolean mQuickScaleMoved;//正在双击拖动缩放
-    private PointF mQuickScaleVLastPoint;
-    private PointF mQuickScaleSCenter;
-    private PointF mQuickScaleVStart;
+    private final PointF mQuickScaleVLastPoint = new PointF();
+    private final PointF mQuickScaleSCenter = new PointF();
+    private final PointF mQuickScaleVStart = new PointF();
 
     private Bitmap mSourceBitmap;
+    //底图由外部(如页面缓存)持有，reset时不放回复用池
+    private boolean mSourceBitmapShared;
     private int mBitmapWidth;
     private int mBitmapHeight;
+    //setImage时按需解码原图区域，setImageBitmap时为null
+    private ImageRegionDecoder mRegionDecoder;
+    private ImageRegionDecoder.Callback mRegionCallback;
+    //底图是原图按采样率缩小的结果，mBitmapWidth、mBitmapHeight和缩放比都以原图为准，setImageBitmap时为1
+    private int mBaseSample = 1;
+    private final PdfTileManager mRegionTiles = new PdfTileManager();
+    //缩小绘制时使用的底图mipmap
+    private final BitmapMipmap mMipmap = new BitmapMipmap(this);
+    //内存预算降到清空缓存时释放tile，attach期间注册
+    private final RenderMemoryBudget.OnLevelChangeListener mMemoryLevelListener = new RenderMemoryBudget.OnLevelChangeListener() {
+        @Override
+        public void onLevelChanged(int level) {
+            if (level >= RenderMemoryBudget.LEVEL_NO_CACHE) {
+                releaseTiles();
+                //释放的tile先放回了复用池
+                BitmapPool.getInstance().clear();
+            }
+        }
+    };
+    //视口稳定后在下一次绘制时请求可见区域
+    private boolean isRegionRequestPending;
     //就绪状态
     private boolean mReadySent;
     //fling、双击、单击检测
     private GestureDetector mDetector;
 
     private float mScale = 0f;
-    private float mMaxScale = 2f;
-    private float mMinScale = minScale();
 
     private float mDensity;
     //move达到了发生重绘的阈值
@@ -146,10 +196,25 @@ public class ScaleImageView extends View {
      * 发生的缩放不会伴随动画，会在瞬间完成
      * 这里的参数用来记录下次重绘的时候要发生的改变
      */
-    private Float mPendingScale;
+    private float mPendingScale;
     private PointF mSrcPendingCenter;
     private Paint mBitmapPaint;
-    private Matrix mMatrix;
+    //拖动、缩放、动画过程中使用的画笔，不做抗锯齿、过滤、抖动，停止后的下一帧恢复
+    private Paint mMotionPaint;
+    private boolean mMotionQualityEnabled = true;
+    //运动中额外降低一级mipmap
+    private boolean mMotionLowResEnabled;
+    //当前帧按运动质量绘制
+    private boolean isMotionFrame;
+    //绘制耗时统计，纳秒
+    private int mMotionFrameCount;
+    private long mMotionDrawNanos;
+    private int mStillFrameCount;
+    private long mStillDrawNanos;
+    //上一帧运动中绘制的开始时间，0 上一帧静止
+    private long mLastMotionDrawStart;
+    private OnFrameTimeListener mFrameTimeListener;
+    private final Matrix mMatrix = new Matrix();
 
     public ScaleImageView(Context context) {
         this(context, null);
@@ -166,19 +231,101 @@ public class ScaleImageView extends View {
     }
 
     public final void setImageResource(@IdRes int resId) {
-        setImageBitmap(BitmapFactory.decodeResource(getResources(), resId));
+        setImage(ImageSource.fromResource(resId));
     }
 
     public final void setImageDrawable(@NonNull Drawable drawable) {
-        setImageBitmap(drawable2Bitmap(drawable));
+        if (drawable instanceof BitmapDrawable) {
+            //bitmap由drawable持有，不复制，也不能放回复用池
+            setImageBitmap(((BitmapDrawable) drawable).getBitmap(), true);
+        } else {
+            //转换出的bitmap只有view持有，reset时放回复用池
+            setImageBitmap(drawable2Bitmap(drawable), false);
+        }
+    }
+
+    /**
+     * 异步解码，先显示按view尺寸采样的底图，放大后再解码可见区域的原图像素
+     */
+    public final void setImage(@NonNull ImageSource source) {
+        reset(true);
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        int targetWidth = getWidth() > 0 ? getWidth() : metrics.widthPixels;
+        int targetHeight = getHeight() > 0 ? getHeight() : metrics.heightPixels;
+        mRegionDecoder = new ImageRegionDecoder(getContext(), source, regionCallback());
+        mRegionDecoder.loadBase(targetWidth, targetHeight);
     }
 
+    private ImageRegionDecoder.Callback regionCallback() {
+        if (mRegionCallback == null) {
+            mRegionCallback = new ImageRegionDecoder.Callback() {
+                @Override
+                public void onBaseDecoded(ImageRegionDecoder decoder, Bitmap base, int width, int height, int sample) {
+                    mSourceBitmap = base;
+                    mSourceBitmapShared = false;
+                    mBitmapWidth = width;
+                    mBitmapHeight = height;
+                    mBaseSample = sample;
+                    mRegionTiles.setSourceSize(base.getWidth(), base.getHeight());
+                    mRegionTiles.setMaxLevel(decoder.getMaxTileLevel());
+                    isRegionRequestPending = true;
+                    invalidate();
+                    requestLayout();
+                }
+
+                @Override
+                public void onTileDecoded(ImageRegionDecoder decoder, PdfTileManager.Tile tile) {
+                    mRegionTiles.putTile(tile);
+                    invalidate();
+                }
+
+                @Override
+                public void onDecodeFailed(ImageRegionDecoder decoder, IOException e) {
+                    e.printStackTrace();
+                }
+            };
+        }
+        return mRegionCallback;
+    }
+
+    /**
+     * 视口稳定，下一次绘制时请求可见区域
+     */
+    private void invalidateRegions() {
+        if (mRegionDecoder != null) {
+            isRegionRequestPending = true;
+            invalidate();
+        }
+    }
+
+    /**
+     * 请求当前视口缺失的tile，之前还没有解码的请求被取消
+     */
+    private void requestRegions() {
+        isRegionRequestPending = false;
+        if (mRegionDecoder == null || vTranslate == null) {
+            return;
+        }
+        mRegionDecoder.loadTiles(mRegionTiles.collectMissingTiles(mScale * mBaseSample, vTranslate, getWidth(), getHeight()));
+    }
+
+    /**
+     * bitmap由调用方持有，view不会放回复用池
+     */
     public final void setImageBitmap(Bitmap bitmap) {
+        setImageBitmap(bitmap, true);
+    }
+
+    /**
+     * @param shared true 底图由外部持有，reset时不会放回复用池；false 交给view，只在调用方不再使用时传入
+     */
+    public final void setImageBitmap(Bitmap bitmap, boolean shared) {
         if (bitmap == null) {
             return;
         }
         reset(true);
         mSourceBitmap = bitmap;
+        mSourceBitmapShared = shared;
         mBitmapWidth = bitmap.getWidth();
         mBitmapHeight = bitmap.getHeight();
         if (checkReady()) {
@@ -189,6 +336,7 @@ public class ScaleImageView extends View {
 
     private void init(Context context) {
         setGestureDetector(context);
+        mAnimationBuilder = new AnimationBuilder();
         //设置默认的最小缩放比
         setMinimumDpi(DEFAULT_THRESHOLD_VALUE_VALUE);
         //设置默认双击放大值
@@ -253,7 +401,7 @@ public class ScaleImageView extends View {
     private void onDown(MotionEvent event) {
         int touchCount = event.getPointerCount();
         mConsumed = false;
-        mAnim = null;
+        finishAnim();
         requestDisallowInterceptTouchEvent(true);
         mMaxTouchCount = Math.max(mMaxTouchCount, touchCount);
         if (touchCount >= 2) {
@@ -291,7 +439,7 @@ public class ScaleImageView extends View {
 
                     double previousScale = mScale;
                     //计算缩放比
-                    mScale = Math.min(mMaxScale, (vDistEnd / vDistStart) * mScaleStart);
+                    mScale = Math.min(mEngine.getMaxScale(), (vDistEnd / vDistStart) * mScaleStart);
 
                     if (mScale <= minScale()) {
                         //小于等于最小缩放比，重置参数，不做位移缩放等操作。
@@ -342,7 +490,7 @@ public class ScaleImageView extends View {
                     }
 
                     double previousScale = mScale;
-                    mScale = Math.max(minScale(), Math.min(mMaxScale, mScale * multiplier));
+                    mScale = Math.max(minScale(), Math.min(mEngine.getMaxScale(), mScale * multiplier));
                     float vLeftStart = vCenterStart.x - vTranslateStart.x;
                     float vTopStart = vCenterStart.y - vTranslateStart.y;
                     float vLeftNow = vLeftStart * (mScale / mScaleStart);
@@ -353,7 +501,7 @@ public class ScaleImageView extends View {
                     if ((previousScale * mBitmapHeight < getHeight() && mScale * mBitmapHeight >= getHeight()) ||
                             (previousScale * mBitmapWidth < getWidth() && mScale * mBitmapWidth >= getWidth())) {
                         fitToBounds(true);
-                        vCenterStart.set(CoordUtils.sourceToViewCoord(vTranslate, mScale, mQuickScaleSCenter));
+                        CoordUtils.sourceToViewCoord(vTranslate, mScale, mQuickScaleSCenter.x, mQuickScaleSCenter.y, vCenterStart);
                         vTranslateStart.set(vTranslate);
                         mScaleStart = mScale;
                         dist = 0;
@@ -404,6 +552,13 @@ public class ScaleImageView extends View {
 
     private boolean onUp(MotionEvent event) {
         int touchCount = event.getPointerCount();
+        if (event.getAction() == MotionEvent.ACTION_UP) {
+            invalidateRegions();
+            if (isMotionFrame) {
+                //下一帧恢复完整质量
+                invalidate();
+            }
+        }
         if (isQuickScaling) {
             isQuickScaling = false;
             if (!mQuickScaleMoved) {
@@ -457,15 +612,6 @@ public class ScaleImageView extends View {
     }
 
     private void initTranslate() {
-        if (vTranslateStart == null) {
-            vTranslateStart = new PointF(0, 0);
-        }
-        if (vTranslateBefore == null) {
-            vTranslateBefore = new PointF(0, 0);
-        }
-        if (vCenterStart == null) {
-            vCenterStart = new PointF(0, 0);
-        }
         vTranslateBefore.set(vTranslate);
     }
 
@@ -484,8 +630,9 @@ public class ScaleImageView extends View {
             requestDisallowInterceptTouchEvent(true);
             return true;
         } else if (mAnim != null && mAnim.listener != null) {
-            mAnim.listener.onInterruptedByUser();
-            mAnim = null;
+            OnAnimationEventListener listener = mAnim.listener;
+            finishAnim();
+            listener.onInterruptedByUser();
         }
         return false;
     }
@@ -505,13 +652,14 @@ public class ScaleImageView extends View {
             @Override
             public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
                 if (canFling(e1, e2, velocityX, velocityY)) {
-                    PointF vTranslateEnd = new PointF(vTranslate.x + (velocityX * 0.25f), vTranslate.y + (velocityY * 0.25f));
-                    float sCenterXEnd = ((getWidth() >> 1) - vTranslateEnd.x) / mScale;
-                    float sCenterYEnd = ((getHeight() >> 1) - vTranslateEnd.y) / mScale;
-                    new AnimationBuilder(new PointF(sCenterXEnd, sCenterYEnd))
+                    float vTranslateXEnd = vTranslate.x + (velocityX * 0.25f);
+                    float vTranslateYEnd = vTranslate.y + (velocityY * 0.25f);
+                    mTempPoint.set(((getWidth() >> 1) - vTranslateXEnd) / mScale, ((getHeight() >> 1) - vTranslateYEnd) / mScale);
+                    mAnimationBuilder.prepare(mScale, mTempPoint, null)
                             .withEasing(EASE_OUT_QUAD)
                             .withPanLimited(false)
-                            .withOnAnimationEventListener(mAnimationEventListener == null ? new DefaultAnimationListener() : mAnimationEventListener)
+                            .withOrigin(ORIGIN_FLING)
+                            .withOnAnimationEventListener(getAnimationListener())
                             .start();
                     return true;
                 }
@@ -525,21 +673,23 @@ public class ScaleImageView extends View {
                     if (mQuickScaleEnabled) {
                         //在这里不直接处理双支缩放
                         //记录双击参数，在OnTouchEvent里面处理拖动缩放
-                        vCenterStart = new PointF(e.getX(), e.getY());
-                        vTranslateStart = new PointF(vTranslate.x, vTranslate.y);
+                        vCenterStart.set(e.getX(), e.getY());
+                        vTranslateStart.set(vTranslate.x, vTranslate.y);
                         mScaleStart = mScale;
                         isQuickScaling = true;
                         isZooming = true;
                         mQuickScaleLastDistance = -1F;
-                        mQuickScaleSCenter = CoordUtils.viewToSourceCoord(vTranslate, mScale, vCenterStart);
-                        mQuickScaleVStart = new PointF(e.getX(), e.getY());
-                        mQuickScaleVLastPoint = new PointF(mQuickScaleSCenter.x, mQuickScaleSCenter.y);
+                        CoordUtils.viewToSourceCoord(vTranslate, mScale, vCenterStart.x, vCenterStart.y, mQuickScaleSCenter);
+                        mQuickScaleVStart.set(e.getX(), e.getY());
+                        mQuickScaleVLastPoint.set(mQuickScaleSCenter.x, mQuickScaleSCenter.y);
                         mQuickScaleMoved = false;
                         //交给onTouchEvent处理
                         return false;
                     } else {
                         //不支持双击拖动缩放
-                        doubleTapZoom(CoordUtils.viewToSourceCoord(vTranslate, mScale, new PointF(e.getX(), e.getY())), new PointF(e.getX(), e.getY()));
+                        mQuickScaleVStart.set(e.getX(), e.getY());
+                        CoordUtils.viewToSourceCoord(vTranslate, mScale, e.getX(), e.getY(), mQuickScaleSCenter);
+                        doubleTapZoom(mQuickScaleSCenter, mQuickScaleVStart);
                         return true;
                     }
                 }
@@ -558,15 +708,18 @@ public class ScaleImageView extends View {
         return mSourceBitmap;
     }
 
+    /**
+     * 当前帧使用的画笔，运动中为低质量画笔
+     */
     public Paint getBitmapPaint() {
-        return mBitmapPaint;
+        return isMotionFrame ? mMotionPaint : mBitmapPaint;
     }
 
     /**
      * 双击缩放
      */
     private void doubleTapZoom(PointF sCenter, PointF vFocus) {
-        float doubleTapZoomScale = Math.min(mMaxScale, this.mDoubleTapZoomScale);
+        float doubleTapZoomScale = Math.min(mEngine.getMaxScale(), this.mDoubleTapZoomScale);
         //zoomIn true放大，false缩小
         boolean zoomIn = mScale <= doubleTapZoomScale * 0.9;
         float targetScale = zoomIn ? doubleTapZoomScale : minScale();
@@ -574,23 +727,29 @@ public class ScaleImageView extends View {
             return;
         }
         if (mDoubleTapZoomStyle == ZOOM_FOCUS_CENTER_IMMEDIATE) {
-            setScaleAndCenter(targetScale, sCenter);
+            setScaleAndCenter(targetScale, new PointF(sCenter.x, sCenter.y));
         } else if (mDoubleTapZoomStyle == ZOOM_FOCUS_CENTER || !zoomIn) {
-            new AnimationBuilder(targetScale, sCenter)
+            mAnimationBuilder.prepare(targetScale, sCenter, null)
                     .withInterruptible(false)
                     .withDuration(DEFAULT_ANIM_DURATION)
-                    .withOnAnimationEventListener(mAnimationEventListener == null ? new DefaultAnimationListener() : mAnimationEventListener)
+                    .withOrigin(ORIGIN_DOUBLE_TAP)
+                    .withOnAnimationEventListener(getAnimationListener())
                     .start();
         } else if (mDoubleTapZoomStyle == ZOOM_FOCUS_FIXED) {
-            new AnimationBuilder(targetScale, sCenter, vFocus)
+            mAnimationBuilder.prepare(targetScale, sCenter, vFocus)
                     .withInterruptible(false)
                     .withDuration(DEFAULT_ANIM_DURATION)
-                    .withOnAnimationEventListener(mAnimationEventListener == null ? new DefaultAnimationListener() : mAnimationEventListener)
+                    .withOrigin(ORIGIN_DOUBLE_TAP)
+                    .withOnAnimationEventListener(getAnimationListener())
                     .start();
         }
         invalidate();
     }
 
+    private OnAnimationEventListener getAnimationListener() {
+        return mAnimationEventListener == null ? mDefaultAnimationListener : mAnimationEventListener;
+    }
+
     /**
      * 是否达到fling条件
      */
@@ -603,10 +762,11 @@ public class ScaleImageView extends View {
     }
 
     public final void setScaleAndCenter(float scale, PointF sCenter) {
-        this.mAnim = null;
+        finishAnim();
         this.mPendingScale = scale;
         this.mSrcPendingCenter = sCenter;
         invalidate();
+        invalidateRegions();
     }
 
     @Override
@@ -614,19 +774,96 @@ public class ScaleImageView extends View {
         super.onDraw(canvas);
         createPaints();
         if (!checkReady()) {
+            drawEmpty(canvas);
             return;
         }
-        //子类draw
-        if (subDraw(canvas)) {
-            return;
-        }
+        long drawStart = System.nanoTime();
         preDraw();
         //如果动画不为空，开始计算动画
         if (mAnim != null) {
             exeAnim();
         }
-        //绘制bitmap
-        drawBitmap(canvas);
+        boolean moving = isZooming || isPanning || mAnim != null;
+        isMotionFrame = mMotionQualityEnabled && moving;
+        if (isRegionRequestPending && !moving) {
+            requestRegions();
+        }
+        //子类draw，返回true时不再绘制bitmap
+        if (!subDraw(canvas)) {
+            drawBitmap(canvas);
+        }
+        long drawNanos = System.nanoTime() - drawStart;
+        if (moving) {
+            mMotionFrameCount++;
+            mMotionDrawNanos += drawNanos;
+            long interval = drawStart - mLastMotionDrawStart;
+            //间隔过长时从这一帧重新开始计算
+            if (mFrameTimeListener != null && mLastMotionDrawStart != 0
+                    && interval <= mFrameIntervalNanos * MAX_FRAME_GAP_VSYNCS) {
+                mFrameTimeListener.onFrameTime(interval);
+            }
+            mLastMotionDrawStart = drawStart;
+        } else {
+            mLastMotionDrawStart = 0;
+            mStillFrameCount++;
+            mStillDrawNanos += drawNanos;
+        }
+    }
+
+    /**
+     * 拖动、缩放、动画过程中降低绘制质量，默认开启
+     */
+    public void setMotionQualityEnabled(boolean enabled) {
+        mMotionQualityEnabled = enabled;
+    }
+
+    /**
+     * 运动中缩小绘制时额外使用低一级的mipmap，默认关闭
+     */
+    public void setMotionLowResEnabled(boolean enabled) {
+        mMotionLowResEnabled = enabled;
+    }
+
+    /**
+     * 拖动、缩放、动画过程中绘制的帧数
+     */
+    public int getMotionFrameCount() {
+        return mMotionFrameCount;
+    }
+
+    /**
+     * 拖动、缩放、动画过程中绘制的总耗时，纳秒
+     */
+    public long getMotionDrawNanos() {
+        return mMotionDrawNanos;
+    }
+
+    /**
+     * 静止时绘制的帧数
+     */
+    public int getStillFrameCount() {
+        return mStillFrameCount;
+    }
+
+    /**
+     * 静止时绘制的总耗时，纳秒
+     */
+    public long getStillDrawNanos() {
+        return mStillDrawNanos;
+    }
+
+    /**
+     * 运动中连续两帧的间隔，用于判断是否掉帧
+     */
+    public void setOnFrameTimeListener(OnFrameTimeListener listener) {
+        mFrameTimeListener = listener;
+    }
+
+    public void resetDrawStats() {
+        mMotionFrameCount = 0;
+        mMotionDrawNanos = 0;
+        mStillFrameCount = 0;
+        mStillDrawNanos = 0;
     }
 
     /**
@@ -637,7 +874,7 @@ public class ScaleImageView extends View {
             return;
         }
         //没有动画缩放时，调整图像到一个中心点
-        if (mSrcPendingCenter != null && mPendingScale != null) {
+        if (mSrcPendingCenter != null) {
             mScale = mPendingScale;
             if (vTranslate == null) {
                 vTranslate = new PointF();
@@ -645,93 +882,174 @@ public class ScaleImageView extends View {
             vTranslate.x = (getWidth() >> 1) - (mScale * mSrcPendingCenter.x);
             vTranslate.y = (getHeight() >> 1) - (mScale * mSrcPendingCenter.y);
             mSrcPendingCenter = null;
-            mPendingScale = null;
+            mPendingScale = 0f;
             fitToBounds(true);
         }
         fitToBounds(false);
     }
 
     /**
-     * 子类继承，在父类draw之前做一些额外绘制，
+     * 子类继承，在父类draw之前做一些额外绘制，此时动画参数已经计算完毕
      *
-     * @return true 不会再执行父类draw
+     * @return true 不会再执行父类draw，可以调用{@link #drawBitmap(Canvas)}自行绘制底图
      */
     protected boolean subDraw(Canvas canvas) {
         return false;
     }
 
+    /**
+     * 子类继承，还没有底图或者尺寸未就绪时绘制，例如加载中的占位
+     */
+    protected void drawEmpty(Canvas canvas) {
+    }
+
     /**
      * 执行动画
+     * 进度只由帧时间决定，掉帧时直接跳到这一帧应有的位置，不会整体变慢；
+     * 第一帧按已经过去一帧计算，开始前的耗时不会让动画跳过开头
      */
     private void exeAnim() {
-        if (vTranslateBefore == null) {
-            vTranslateBefore = new PointF(0, 0);
-        }
         vTranslateBefore.set(vTranslate);
 
-        long scaleElapsed = System.currentTimeMillis() - mAnim.time;
-        boolean finished = scaleElapsed > mAnim.duration;
+        long frameTime = mFrameTimeNanos != 0 ? mFrameTimeNanos : System.nanoTime();
+        mFrameTimeNanos = 0;
+        if (mAnim.startNanos == 0) {
+            mAnim.startNanos = frameTime - mFrameIntervalNanos;
+        } else if (frameTime > mAnim.lastFrameNanos) {
+            //相邻两帧之间错过的vsync
+            long frames = (frameTime - mAnim.lastFrameNanos + (mFrameIntervalNanos >> 1)) / mFrameIntervalNanos;
+            mAnim.framesDropped += Math.max(0, frames - 1);
+        }
+        mAnim.lastFrameNanos = frameTime;
+        mAnim.framesDrawn++;
+
+        long scaleElapsed = Math.max(0, (frameTime - mAnim.startNanos) / 1000000);
+        boolean finished = scaleElapsed >= mAnim.duration;
         scaleElapsed = Math.min(scaleElapsed, mAnim.duration);
-        mScale = ease(mAnim.easing, scaleElapsed, mAnim.scaleStart, mAnim.scaleEnd - mAnim.scaleStart, mAnim.duration);
+        mScale = ViewportEngine.ease(mAnim.easing, scaleElapsed, mAnim.scaleStart, mAnim.scaleEnd - mAnim.scaleStart, mAnim.duration);
         //差值器计算当前要发生缩放位移的目标值
-        float vFocusNowX = ease(mAnim.easing, scaleElapsed, mAnim.vFocusStart.x, mAnim.vFocusEnd.x - mAnim.vFocusStart.x, mAnim.duration);
-        float vFocusNowY = ease(mAnim.easing, scaleElapsed, mAnim.vFocusStart.y, mAnim.vFocusEnd.y - mAnim.vFocusStart.y, mAnim.duration);
+        float vFocusNowX = ViewportEngine.ease(mAnim.easing, scaleElapsed, mAnim.vFocusStart.x, mAnim.vFocusEnd.x - mAnim.vFocusStart.x, mAnim.duration);
+        float vFocusNowY = ViewportEngine.ease(mAnim.easing, scaleElapsed, mAnim.vFocusStart.y, mAnim.vFocusEnd.y - mAnim.vFocusStart.y, mAnim.duration);
         // 转换坐标
         vTranslate.x -= CoordUtils.sourceToViewX(vTranslate, mScale, mAnim.sCenterEnd.x) - vFocusNowX;
         vTranslate.y -= CoordUtils.sourceToViewY(vTranslate, mScale, mAnim.sCenterEnd.y) - vFocusNowY;
 
         fitToBounds(finished || (mAnim.scaleStart == mAnim.scaleEnd));
         if (finished) {
-            if (mAnim.listener != null) {
-                mAnim.listener.onComplete();
+            isRegionRequestPending = mRegionDecoder != null;
+            OnAnimationEventListener listener = mAnim.listener;
+            finishAnim();
+            if (listener != null) {
+                listener.onComplete();
             }
-            mAnim = null;
+        } else {
+            scheduleAnimationFrame();
         }
-        invalidate();
     }
 
     /**
-     * 动画差值器
+     * 请求下一帧，同一时间只有一个帧回调
      */
-    private float ease(int type, long time, float from, float change, long duration) {
-        switch (type) {
-            case EASE_IN_OUT_QUAD:
-                return easeInOutQuad(time, from, change, duration);
-            case EASE_OUT_QUAD:
-                return easeOutQuad(time, from, change, duration);
-            default:
-                throw new IllegalStateException("Unexpected easing type: " + type);
+    private void scheduleAnimationFrame() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            ViewCompat.postInvalidateOnAnimation(this);
+            return;
         }
+        if (isFrameScheduled) {
+            return;
+        }
+        if (mFrameCallback == null) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    isFrameScheduled = false;
+                    if (mAnim != null) {
+                        mFrameTimeNanos = frameTimeNanos;
+                        //帧回调在绘制之前执行，这里请求的重绘在同一帧完成
+                        invalidate();
+                    }
+                }
+            };
+        }
+        isFrameScheduled = true;
+        Choreographer.getInstance().postFrameCallback(mFrameCallback);
     }
 
-    private float easeOutQuad(long time, float from, float change, long duration) {
-        float progress = (float) time / (float) duration;
-        return -change * progress * (progress - 2) + from;
+    private void cancelAnimationFrame() {
+        if (isFrameScheduled) {
+            isFrameScheduled = false;
+            Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+        }
+        mFrameTimeNanos = 0;
     }
 
-    private float easeInOutQuad(long time, float from, float change, long duration) {
-        float timeF = time / (duration / 2f);
-        if (timeF < 1) {
-            return (change / 2f * timeF * timeF) + from;
-        } else {
-            timeF--;
-            return (-change / 2f) * (timeF * (timeF - 2) - 1) + from;
+    /**
+     * 屏幕刷新间隔，没有attach时按60Hz
+     */
+    private long frameIntervalNanos() {
+        Display display = ViewCompat.getDisplay(this);
+        float refreshRate = display != null ? display.getRefreshRate() : 0;
+        return refreshRate >= 1 ? (long) (1000000000L / refreshRate) : DEFAULT_FRAME_INTERVAL_NANOS;
+    }
+
+    /**
+     * 结束当前动画(完成或者被打断)，输出这次动画的帧统计
+     */
+    private void finishAnim() {
+        Anim anim = mAnim;
+        if (anim == null) {
+            return;
+        }
+        mAnim = null;
+        cancelAnimationFrame();
+        mLastAnimFramesDrawn = anim.framesDrawn;
+        mLastAnimFramesDropped = anim.framesDropped;
+        if (mAnimationFrameStatsListener != null && anim.framesDrawn > 0) {
+            mAnimationFrameStatsListener.onAnimationFrameStats(anim.origin, anim.framesDrawn, anim.framesDropped,
+                    (anim.lastFrameNanos - anim.startNanos) / 1000000);
         }
     }
 
+    /**
+     * 每次动画结束时回调帧统计
+     */
+    public void setOnAnimationFrameStatsListener(OnAnimationFrameStatsListener listener) {
+        mAnimationFrameStatsListener = listener;
+    }
+
+    /**
+     * 上一次动画绘制的帧数
+     */
+    public int getLastAnimationFramesDrawn() {
+        return mLastAnimFramesDrawn;
+    }
+
+    /**
+     * 上一次动画相邻两帧之间错过的vsync数之和
+     */
+    public int getLastAnimationFramesDropped() {
+        return mLastAnimFramesDropped;
+    }
+
     /**
      * 绘制bitmap
      */
-    private void drawBitmap(Canvas canvas) {
+    protected void drawBitmap(Canvas canvas) {
         if (mSourceBitmap != null) {
-            float xScale = mScale, yScale = mScale;
-            if (mMatrix == null) {
-                mMatrix = new Matrix();
-            }
+            //底图是采样后的，按采样率放大到原图坐标
+            float xScale = mScale * mBaseSample, yScale = mScale * mBaseSample;
+            //缩小时绘制最接近的mipmap，level尺寸取整过，两个方向分别换算
+            mMipmap.setSource(mSourceBitmap);
+            Bitmap bitmap = mMipmap.getLevel(mMipmap.levelFor(isMotionFrame && mMotionLowResEnabled ? xScale / 2 : xScale));
             mMatrix.reset();
-            mMatrix.postScale(xScale, yScale);
+            mMatrix.postScale(xScale * mSourceBitmap.getWidth() / bitmap.getWidth(),
+                    yScale * mSourceBitmap.getHeight() / bitmap.getHeight());
             mMatrix.postTranslate(vTranslate.x, vTranslate.y);
-            canvas.drawBitmap(mSourceBitmap, mMatrix, mBitmapPaint);
+            canvas.drawBitmap(bitmap, mMatrix, getBitmapPaint());
+            if (mRegionDecoder != null) {
+                //放大后解码的原图区域盖在底图上
+                mRegionTiles.draw(canvas, xScale, vTranslate, getWidth(), getHeight(), getBitmapPaint());
+            }
         }
     }
 
@@ -742,6 +1060,13 @@ public class ScaleImageView extends View {
             mBitmapPaint.setFilterBitmap(true);
             mBitmapPaint.setDither(true);
         }
+        if (mMotionPaint == null) {
+            //P开始默认开启过滤，这里显式关闭
+            mMotionPaint = new Paint();
+            mMotionPaint.setAntiAlias(false);
+            mMotionPaint.setFilterBitmap(false);
+            mMotionPaint.setDither(false);
+        }
     }
 
     @Override
@@ -773,90 +1098,47 @@ public class ScaleImageView extends View {
      * 获取中心点
      */
     public final PointF getCenter() {
+        return getCenter(new PointF());
+    }
+
+    private PointF getCenter(PointF out) {
         int mX = getWidth() >> 1;
         int mY = getHeight() >> 1;
-        return CoordUtils.viewToSourceCoord(vTranslate, mScale, mX, mY);
+        return CoordUtils.viewToSourceCoord(vTranslate, mScale, mX, mY, out);
     }
 
     /**
      * 获取合适范围的缩放比例
      */
     private float limitedScale(float targetScale) {
-        targetScale = Math.max(minScale(), targetScale);
-        targetScale = Math.min(mMaxScale, targetScale);
-        return targetScale;
+        return engine().limitedScale(targetScale);
     }
 
     private float minScale() {
-        int vPadding = getPaddingBottom() + getPaddingTop();
-        int hPadding = getPaddingLeft() + getPaddingRight();
-        if (mMinimumScaleType == SCALE_TYPE_CENTER_CROP) {
-            return Math.max((getWidth() - hPadding) / (float) mBitmapWidth, (getHeight() - vPadding) / (float) mBitmapHeight);
-        } else if (mMinimumScaleType == SCALE_TYPE_CUSTOM && mMinScale > 0) {
-            return mMinScale;
-        } else {
-            return Math.min((getWidth() - hPadding) / (float) mBitmapWidth, (getHeight() - vPadding) / (float) mBitmapHeight);
-        }
+        return engine().minScale();
+    }
+
+    /**
+     * 同步view尺寸、padding、底图尺寸到计算引擎
+     */
+    private ViewportEngine engine() {
+        mEngine.setViewSize(getWidth(), getHeight());
+        mEngine.setPadding(getPaddingLeft(), getPaddingTop(), getPaddingRight(), getPaddingBottom());
+        mEngine.setSourceSize(mBitmapWidth, mBitmapHeight);
+        mEngine.setReady(mReadySent);
+        return mEngine;
     }
 
     public void setMinimumScaleType(int type) {
         if (VALID_SCALE_TYPES.contains(type)) {
-            mMinimumScaleType = type;
+            mEngine.setMinimumScaleType(type);
         }
     }
 
     public void setPanLimit(int limit) {
         if (VALID_PAN_LIMITS.contains(limit)) {
-            mPanLimit = limit;
-        }
-    }
-
-    /**
-     * 调整参数，是的图像边界不会超出置顶范围
-     */
-    private void fitToBounds(boolean center, ScaleAndTranslate sat) {
-        if (mPanLimit == PAN_LIMIT_OUTSIDE && mReadySent) {
-            //可以滑出屏幕
-            center = false;
-        }
-
-        PointF vTranslate = sat.vTranslate;
-        float scale = limitedScale(sat.scale);
-        float scaleWidth = scale * mBitmapWidth;
-        float scaleHeight = scale * mBitmapHeight;
-
-        //正方向最大滑动距离
-        if (mPanLimit == PAN_LIMIT_CENTER && mReadySent) {
-            vTranslate.x = Math.max(vTranslate.x, (getWidth() >> 1) - scaleWidth);
-            vTranslate.y = Math.max(vTranslate.y, (getHeight() >> 1) - scaleHeight);
-        } else if (center) {
-            vTranslate.x = Math.max(vTranslate.x, getWidth() - scaleWidth);
-            vTranslate.y = Math.max(vTranslate.y, getHeight() - scaleHeight);
-        } else {
-            vTranslate.x = Math.max(vTranslate.x, -scaleWidth);
-            vTranslate.y = Math.max(vTranslate.y, -scaleHeight);
+            mEngine.setPanLimit(limit);
         }
-
-        float xPaddingRatio = getPaddingLeft() > 0 || getPaddingRight() > 0 ? getPaddingLeft() / (float) (getPaddingLeft() + getPaddingRight()) : 0.5f;
-        float yPaddingRatio = getPaddingTop() > 0 || getPaddingBottom() > 0 ? getPaddingTop() / (float) (getPaddingTop() + getPaddingBottom()) : 0.5f;
-
-        float maxTx;
-        float maxTy;
-        if (mPanLimit == PAN_LIMIT_CENTER && mReadySent) {
-            maxTx = Math.max(0, getWidth() >> 1);
-            maxTy = Math.max(0, getHeight() >> 1);
-        } else if (center) {
-            maxTx = Math.max(0, (getWidth() - scaleWidth) * xPaddingRatio);
-            maxTy = Math.max(0, (getHeight() - scaleHeight) * yPaddingRatio);
-        } else {
-            maxTx = Math.max(0, getWidth());
-            maxTy = Math.max(0, getHeight());
-        }
-        //负方向最大滑动距离
-        vTranslate.x = Math.min(vTranslate.x, maxTx);
-        vTranslate.y = Math.min(vTranslate.y, maxTy);
-
-        sat.scale = scale;
     }
 
     /**
@@ -868,17 +1150,14 @@ public class ScaleImageView extends View {
             init = true;
             vTranslate = new PointF(0, 0);
         }
-        if (mSatTemp == null) {
-            mSatTemp = new ScaleAndTranslate(0, new PointF(0, 0));
-        }
-        mSatTemp.scale = mScale;
-        mSatTemp.vTranslate.set(vTranslate);
-        fitToBounds(center, mSatTemp);
+        mSatTemp.set(mScale, vTranslate.x, vTranslate.y);
+        engine().fitToBounds(center, mSatTemp);
         mScale = mSatTemp.scale;
-        vTranslate.set(mSatTemp.vTranslate);
+        vTranslate.set(mSatTemp.translateX, mSatTemp.translateY);
         if (init && !mIsSticky) {
             //mIsSticky为true，图像不居中显示
-            vTranslate.set(vTranslateForSCenter(mBitmapWidth >> 1, mBitmapHeight >> 1, mScale));
+            engine().vTranslateForSCenter(mBitmapWidth >> 1, mBitmapHeight >> 1, mScale, mSatTemp);
+            vTranslate.set(mSatTemp.translateX, mSatTemp.translateY);
         }
     }
 
@@ -891,15 +1170,16 @@ public class ScaleImageView extends View {
     }
 
     private class DefaultAnimationListener implements OnAnimationEventListener {
+        private final Runnable mFinishedRunnable = new Runnable() {
+            @Override
+            public void run() {
+                onAnimationFinished();
+            }
+        };
 
         @Override
         public void onComplete() {
-            post(new Runnable() {
-                @Override
-                public void run() {
-                    onAnimationFinished();
-                }
-            });
+            post(mFinishedRunnable);
         }
 
         @Override
@@ -917,50 +1197,87 @@ public class ScaleImageView extends View {
 
     }
 
+    /**
+     * 双击、fling动画开始，此时已经可以通过{@link #getAnimationEndScale()}、{@link #getAnimationEndTranslate()}
+     * 得到动画结束时的视口
+     */
+    protected void onAnimationStarted() {
+
+    }
+
+    /**
+     * 当前动画结束时的缩放比，没有动画时为当前缩放比
+     */
+    protected final float getAnimationEndScale() {
+        return mAnim != null ? mAnim.scaleFinal : mScale;
+    }
+
+    /**
+     * 当前动画结束时的位移，没有动画时为当前位移
+     */
+    protected final PointF getAnimationEndTranslate() {
+        return mAnim != null ? mAnim.vTranslateFinal : vTranslate;
+    }
+
     /**
      * 双击、fling动画
      */
     private static class Anim {
         private float scaleStart; // Scale at start of anim
         private float scaleEnd; // Scale at end of anim (target)
-        private PointF sCenterStart; // Source center point at start
-        private PointF sCenterEnd; // Source center point at end, adjusted for pan limits
-        private PointF vFocusStart; // View point that was double tapped
-        private PointF vFocusEnd; // Where the view focal point should be moved to during the anim
+        private final PointF sCenterStart = new PointF(); // Source center point at start
+        private final PointF sCenterEnd = new PointF(); // Source center point at end, adjusted for pan limits
+        private final PointF vFocusStart = new PointF(); // View point that was double tapped
+        private final PointF vFocusEnd = new PointF(); // Where the view focal point should be moved to during the anim
+        private float scaleFinal; // 最后一帧修正边界后的缩放比
+        private final PointF vTranslateFinal = new PointF(); // 最后一帧修正边界后的位移
         private long duration = 500; // How long the anim takes
         private boolean interruptible = true; // Whether the anim can be interrupted by a touch
         private int easing = EASE_IN_OUT_QUAD; // Easing style
-        private long time = System.currentTimeMillis(); // Start time
+        private int origin = ORIGIN_ANIM;
+        private long startNanos; // 第一帧时确定的开始时间，0 还没有绘制
+        private long lastFrameNanos;
+        private int framesDrawn;
+        private int framesDropped;
         private OnAnimationEventListener listener; // Event listener
     }
 
+    /**
+     * 每个view只有一个实例，每次开始动画前{@link #prepare}重置参数
+     */
     public final class AnimationBuilder {
 
-        private final float targetScale;
-        private final PointF targetSCenter;
-        private final PointF vFocus;
-        private long duration = DEFAULT_ANIM_DURATION;
-        private int easing = EASE_IN_OUT_QUAD;
-        private boolean interruptible = true;
-        private boolean panLimited = true;
+        private float targetScale;
+        private final PointF targetSCenter = new PointF();
+        private final PointF vFocus = new PointF();
+        private boolean hasFocus;
+        private long duration;
+        private int easing;
+        private boolean interruptible;
+        private boolean panLimited;
+        private int origin;
         private OnAnimationEventListener listener;
 
-        private AnimationBuilder(PointF sCenter) {
-            this.targetScale = mScale;
-            this.targetSCenter = sCenter;
-            this.vFocus = null;
+        private AnimationBuilder() {
         }
 
-        private AnimationBuilder(float scale, PointF sCenter) {
-            this.targetScale = scale;
-            this.targetSCenter = sCenter;
-            this.vFocus = null;
-        }
-
-        private AnimationBuilder(float scale, PointF sCenter, PointF vFocus) {
+        /**
+         * @param vFocus null 动画结束时sCenter位于view中心
+         */
+        private AnimationBuilder prepare(float scale, PointF sCenter, PointF vFocus) {
             this.targetScale = scale;
-            this.targetSCenter = sCenter;
-            this.vFocus = vFocus;
+            this.targetSCenter.set(sCenter.x, sCenter.y);
+            this.hasFocus = vFocus != null;
+            if (hasFocus) {
+                this.vFocus.set(vFocus.x, vFocus.y);
+            }
+            this.duration = DEFAULT_ANIM_DURATION;
+            this.easing = EASE_IN_OUT_QUAD;
+            this.interruptible = true;
+            this.panLimited = true;
+            this.origin = ORIGIN_ANIM;
+            this.listener = null;
+            return this;
         }
 
         public AnimationBuilder withDuration(long duration) {
@@ -990,47 +1307,68 @@ public class ScaleImageView extends View {
             return this;
         }
 
+        private AnimationBuilder withOrigin(int origin) {
+            this.origin = origin;
+            return this;
+        }
+
         public void start() {
-            if (mAnim != null && mAnim.listener != null) {
-                mAnim.listener.onInterruptedByNewAnim();
+            if (mAnim != null) {
+                OnAnimationEventListener previous = mAnim.listener;
+                finishAnim();
+                if (previous != null) {
+                    previous.onInterruptedByNewAnim();
+                }
             }
 
-            int vxCenter = getPaddingLeft() + (getWidth() - getPaddingRight() - getPaddingLeft()) >> 1;
-            int vyCenter = getPaddingTop() + (getHeight() - getPaddingBottom() - getPaddingTop()) >> 1;
-            float targetScale = limitedScale(this.targetScale);
-            PointF targetSCenter = panLimited ? limitedSCenter(this.targetSCenter.x, this.targetSCenter.y, targetScale, new PointF()) : this.targetSCenter;
-            mAnim = new Anim();
+            ViewportEngine engine = engine();
+            int vxCenter = engine.getViewCenterX();
+            int vyCenter = engine.getViewCenterY();
+            float targetScale = engine.limitedScale(this.targetScale);
+            if (panLimited) {
+                limitedSCenter(targetSCenter.x, targetSCenter.y, targetScale, targetSCenter);
+            }
+            mAnim = mAnimHolder;
             mAnim.scaleStart = mScale;
             mAnim.scaleEnd = targetScale;
-            mAnim.time = System.currentTimeMillis();
-            mAnim.sCenterStart = getCenter();
-            mAnim.sCenterEnd = targetSCenter;
-            mAnim.vFocusStart = CoordUtils.sourceToViewCoord(vTranslate, mScale, targetSCenter);
-            mAnim.vFocusEnd = new PointF(
-                    vxCenter,
-                    vyCenter
-            );
+            getCenter(mAnim.sCenterStart);
+            mAnim.sCenterEnd.set(targetSCenter);
+            CoordUtils.sourceToViewCoord(vTranslate, mScale, targetSCenter.x, targetSCenter.y, mAnim.vFocusStart);
+            mAnim.vFocusEnd.set(vxCenter, vyCenter);
             mAnim.duration = duration;
             mAnim.interruptible = interruptible;
             mAnim.easing = easing;
-            mAnim.time = System.currentTimeMillis();
+            mAnim.origin = origin;
+            mAnim.startNanos = 0;
+            mAnim.lastFrameNanos = 0;
+            mAnim.framesDrawn = 0;
+            mAnim.framesDropped = 0;
             mAnim.listener = listener;
+            mFrameIntervalNanos = frameIntervalNanos();
 
-            if (vFocus != null) {
+            if (hasFocus) {
                 //动画结束中心点
                 float vTranslateXEnd = vFocus.x - (targetScale * mAnim.sCenterStart.x);
                 float vTranslateYEnd = vFocus.y - (targetScale * mAnim.sCenterStart.y);
-                ScaleAndTranslate satEnd = new ScaleAndTranslate(targetScale, new PointF(vTranslateXEnd, vTranslateYEnd));
+                ViewportEngine.ScaleAndTranslate satEnd = mSatEnd.set(targetScale, vTranslateXEnd, vTranslateYEnd);
                 // 修正 动画结束中心点，不超出屏幕规定边界
-                fitToBounds(true, satEnd);
+                engine.fitToBounds(true, satEnd);
                 // 调整动画结束后，不超出屏幕规定边界
-                mAnim.vFocusEnd = new PointF(
-                        vFocus.x + (satEnd.vTranslate.x - vTranslateXEnd),
-                        vFocus.y + (satEnd.vTranslate.y - vTranslateYEnd)
+                mAnim.vFocusEnd.set(
+                        vFocus.x + (satEnd.translateX - vTranslateXEnd),
+                        vFocus.y + (satEnd.translateY - vTranslateYEnd)
                 );
             }
+            //结束时的视口，与exeAnim最后一帧的计算一致
+            ViewportEngine.ScaleAndTranslate satFinal = mSatEnd.set(targetScale,
+                    mAnim.vFocusEnd.x - targetScale * mAnim.sCenterEnd.x,
+                    mAnim.vFocusEnd.y - targetScale * mAnim.sCenterEnd.y);
+            engine.fitToBounds(true, satFinal);
+            mAnim.scaleFinal = satFinal.scale;
+            mAnim.vTranslateFinal.set(satFinal.translateX, satFinal.translateY);
 
-            invalidate();
+            onAnimationStarted();
+            scheduleAnimationFrame();
         }
 
     }
@@ -1051,45 +1389,20 @@ public class ScaleImageView extends View {
         setMaxScale(averageDpi / dpi);
     }
 
-    public final void setMaxScale(float mMaxScale) {
-        this.mMaxScale = mMaxScale;
+    public final void setMaxScale(float maxScale) {
+        mEngine.setMaxScale(maxScale);
     }
 
     private PointF limitedSCenter(float sCenterX, float sCenterY, float scale, PointF sTarget) {
-        PointF vTranslate = vTranslateForSCenter(sCenterX, sCenterY, scale);
-        int vxCenter = getPaddingLeft() + (getWidth() - getPaddingRight() - getPaddingLeft()) >> 1;
-        int vyCenter = getPaddingTop() + (getHeight() - getPaddingBottom() - getPaddingTop()) >> 1;
-        float sx = (vxCenter - vTranslate.x) / scale;
-        float sy = (vyCenter - vTranslate.y) / scale;
-        sTarget.set(sx, sy);
+        engine().limitedSCenter(sCenterX, sCenterY, scale, mSatTemp);
+        sTarget.set(mSatTemp.translateX, mSatTemp.translateY);
         return sTarget;
     }
 
-    private PointF vTranslateForSCenter(float sCenterX, float sCenterY, float scale) {
-        int vxCenter = getPaddingLeft() + (getWidth() - getPaddingRight() - getPaddingLeft()) >> 1;
-        int vyCenter = getPaddingTop() + (getHeight() - getPaddingBottom() - getPaddingTop()) >> 1;
-        if (mSatTemp == null) {
-            mSatTemp = new ScaleAndTranslate(0, new PointF(0, 0));
-        }
-        mSatTemp.scale = scale;
-        mSatTemp.vTranslate.set(vxCenter - (sCenterX * scale), vyCenter - (sCenterY * scale));
-        fitToBounds(true, mSatTemp);
-        return mSatTemp.vTranslate;
-    }
-
-    private static class ScaleAndTranslate {
-        private ScaleAndTranslate(float scale, PointF vTranslate) {
-            this.scale = scale;
-            this.vTranslate = vTranslate;
-        }
-
-        private float scale;
-        private PointF vTranslate;
-    }
-
     public void recycle() {
         reset(true);
         mBitmapPaint = null;
+        mMotionPaint = null;
     }
 
     public PointF getTranslate() {
@@ -1113,11 +1426,37 @@ public class ScaleImageView extends View {
         }
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        RenderMemoryBudget.getInstance().addOnLevelChangeListener(mMemoryLevelListener);
+        if (mAnim != null) {
+            scheduleAnimationFrame();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        RenderMemoryBudget.getInstance().removeOnLevelChangeListener(mMemoryLevelListener);
+        cancelAnimationFrame();
+    }
+
+    /**
+     * 释放缓存的tile，只重新请求当前可见的部分，内存紧张时调用
+     */
+    protected void releaseTiles() {
+        mRegionTiles.clear();
+        invalidateRegions();
+    }
+
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        mRegionTiles.setViewSize(w, h);
+        invalidateRegions();
         PointF sCenter = getCenter();
         if (mReadySent && sCenter != null) {
-            this.mAnim = null;
+            finishAnim();
             this.mPendingScale = mScale;
             this.mSrcPendingCenter = sCenter;
         }
@@ -1132,51 +1471,70 @@ public class ScaleImageView extends View {
         mScale = 0f;
         mScaleStart = 0f;
         vTranslate = null;
-        vTranslateStart = null;
-        vTranslateBefore = null;
+        vTranslateStart.set(0, 0);
+        vTranslateBefore.set(0, 0);
         mPendingScale = 0f;
         mSrcPendingCenter = null;
         isZooming = false;
         isPanning = false;
         isQuickScaling = false;
         mMaxTouchCount = 0;
-        vCenterStart = null;
+        vCenterStart.set(0, 0);
         vDistStart = 0;
         mQuickScaleLastDistance = 0f;
         mQuickScaleMoved = false;
-        mQuickScaleSCenter = null;
-        mQuickScaleVLastPoint = null;
-        mQuickScaleVStart = null;
-        mAnim = null;
-        mSatTemp = null;
-        mMatrix = null;
+        finishAnim();
         if (newImage) {
-            if (mSourceBitmap != null) {
-                mSourceBitmap.recycle();
-            }
+            //放回复用池，不可复用的由复用池回收；mipmap还在从底图生成时由生成任务结束后放回
+            mMipmap.clear(mSourceBitmapShared ? null : mSourceBitmap);
+            mSourceBitmapShared = false;
             mBitmapWidth = 0;
             mBitmapHeight = 0;
             mReadySent = false;
             mSourceBitmap = null;
+            if (mRegionDecoder != null) {
+                mRegionDecoder.recycle();
+                mRegionDecoder = null;
+            }
+            mRegionTiles.clear();
+            mBaseSample = 1;
+            isRegionRequestPending = false;
+        }
+        cancelGestureDetector();
+    }
+
+    /**
+     * 清除手势检测中未完成的状态(按下、双击等待)，复用同一个GestureDetector
+     */
+    private void cancelGestureDetector() {
+        if (mDetector == null) {
+            return;
         }
-        setGestureDetector(getContext());
+        long now = SystemClock.uptimeMillis();
+        MotionEvent cancel = MotionEvent.obtain(now, now, MotionEvent.ACTION_CANCEL, 0, 0, 0);
+        mDetector.onTouchEvent(cancel);
+        cancel.recycle();
     }
 
+    /**
+     * 没有像素来源的drawable(nine patch、矢量图等)按固有尺寸光栅化，尺寸限制在一屏以内
+     */
     private Bitmap drawable2Bitmap(Drawable drawable) {
-        if (drawable instanceof BitmapDrawable) {
-            return ((BitmapDrawable) drawable).getBitmap();
-        } else if (drawable instanceof NinePatchDrawable) {
-            Bitmap bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(),
-                    drawable.getIntrinsicHeight(),
-                    drawable.getOpacity() != PixelFormat.OPAQUE ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565);
-            Canvas canvas = new Canvas(bitmap);
-            drawable.setBounds(0, 0, drawable.getIntrinsicWidth(),
-                    drawable.getIntrinsicHeight());
-            drawable.draw(canvas);
-            return bitmap;
-        } else {
+        int width = drawable.getIntrinsicWidth();
+        int height = drawable.getIntrinsicHeight();
+        if (width <= 0 || height <= 0) {
             return null;
         }
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        float scale = Math.min(1f, Math.min((float) metrics.widthPixels / width, (float) metrics.heightPixels / height));
+        width = Math.max(1, Math.round(width * scale));
+        height = Math.max(1, Math.round(height * scale));
+        Bitmap bitmap = Bitmap.createBitmap(width, height,
+                drawable.getOpacity() != PixelFormat.OPAQUE ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565);
+        Canvas canvas = new Canvas(bitmap);
+        drawable.setBounds(0, 0, width, height);
+        drawable.draw(canvas);
+        return bitmap;
     }
 
     /**
@@ -1187,10 +1545,6 @@ public class ScaleImageView extends View {
         /**
          * view坐标转bitmap坐标
          */
-        public static final PointF viewToSourceCoord(PointF translate, float scale, float vx, float vy) {
-            return viewToSourceCoord(translate, scale, vx, vy, new PointF());
-        }
-
         public final static PointF viewToSourceCoord(PointF translate, float scale, float vx, float vy, PointF sTarget) {
             if (translate == null) {
                 return null;
@@ -1199,31 +1553,23 @@ public class ScaleImageView extends View {
             return sTarget;
         }
 
-        public final static PointF viewToSourceCoord(PointF translate, float scale, PointF vxy) {
-            return viewToSourceCoord(translate, scale, vxy.x, vxy.y, new PointF());
-        }
-
         private static float viewToSourceX(PointF translate, float scale, float vx) {
             if (translate == null) {
                 return Float.NaN;
             }
-            return (vx - translate.x) / scale;
+            return ViewportEngine.viewToSource(translate.x, scale, vx);
         }
 
         private static float viewToSourceY(PointF translate, float scale, float vy) {
             if (translate == null) {
                 return Float.NaN;
             }
-            return (vy - translate.y) / scale;
+            return ViewportEngine.viewToSource(translate.y, scale, vy);
         }
 
         /**
          * bitmap坐标转view坐标
          */
-        public final static PointF sourceToViewCoord(PointF translate, float scale, PointF sxy) {
-            return sourceToViewCoord(translate, scale, sxy.x, sxy.y, new PointF());
-        }
-
         public final static PointF sourceToViewCoord(PointF translate, float scale, float sx, float sy, PointF vTarget) {
             if (translate == null) {
                 return null;
@@ -1236,14 +1582,14 @@ public class ScaleImageView extends View {
             if (translate == null) {
                 return Float.NaN;
             }
-            return (sx * scale) + translate.x;
+            return ViewportEngine.sourceToView(translate.x, scale, sx);
         }
 
         private static float sourceToViewY(PointF translate, float scale, float sy) {
             if (translate == null) {
                 return Float.NaN;
             }
-            return (sy * scale) + translate.y;
+            return ViewportEngine.sourceToView(translate.y, scale, sy);
         }
     }
 
@@ -1259,4 +1605,24 @@ public class ScaleImageView extends View {
         void onInterruptedByNewAnim();
 
     }
+
+    /**
+     * 拖动、缩放、动画过程中连续两帧的间隔，超过几个vsync的空闲间隔不回调
+     */
+    public interface OnFrameTimeListener {
+        void onFrameTime(long intervalNanos);
+    }
+
+    /**
+     * 动画帧统计，用于衡量fling、双击缩放是否流畅
+     */
+    public interface OnAnimationFrameStatsListener {
+        /**
+         * @param origin        {@link #ORIGIN_ANIM}、{@link #ORIGIN_FLING}、{@link #ORIGIN_DOUBLE_TAP}
+         * @param framesDrawn   绘制的帧数
+         * @param framesDropped 相邻两帧之间错过的vsync数之和
+         * @param duration      第一帧到最后一帧的时间，毫秒
+         */
+        void onAnimationFrameStats(int origin, int framesDrawn, int framesDropped, long duration);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,83 @@
+package com.example.scaleimageview;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 帧时间调节的升降级和滞回
+ */
+public class FrameTimeGovernorTest {
+    private static final long BUDGET = 20000000L;
+    private static final int WINDOW = 60;
+
+    private FrameTimeGovernor mGovernor;
+    private int mChanges;
+
+    @Before
+    public void setUp() {
+        mGovernor = new FrameTimeGovernor();
+        mGovernor.setFrameBudgetNanos(BUDGET);
+        mGovernor.setOnLevelChangeListener(new FrameTimeGovernor.OnLevelChangeListener() {
+            @Override
+            public void onFrameLevelChanged(int level) {
+                mChanges++;
+            }
+        });
+    }
+
+    @Test
+    public void slowWindows_lowerOneLevelEach() {
+        feed(BUDGET * 2, WINDOW);
+        assertEquals(FrameTimeGovernor.LEVEL_LOW_PART, mGovernor.getLevel());
+        assertEquals(0.5f, mGovernor.getPartResolution(), 0f);
+        assertEquals(4, mGovernor.getPrefetchDepth(4));
+
+        feed(BUDGET * 2, WINDOW);
+        assertEquals(FrameTimeGovernor.LEVEL_LOW_PREFETCH, mGovernor.getLevel());
+        assertEquals(2, mGovernor.getPrefetchDepth(4));
+
+        feed(BUDGET * 2, WINDOW * 5);
+        assertEquals(FrameTimeGovernor.LEVEL_LOW_BASE, mGovernor.getLevel());
+        assertEquals(0.75f, mGovernor.getBaseScale(), 0f);
+        assertEquals(3, mChanges);
+    }
+
+    @Test
+    public void fewSlowFrames_belowP95_keepLevel() {
+        //每个窗口2帧超出预算，不到5%
+        for (int i = 0; i < 10; i++) {
+            feed(BUDGET * 3, 2);
+            feed(BUDGET / 2, WINDOW - 2);
+        }
+        assertEquals(FrameTimeGovernor.LEVEL_NORMAL, mGovernor.getLevel());
+        assertEquals(0, mChanges);
+    }
+
+    @Test
+    public void raise_needsSeveralWindowsOfHeadroom() {
+        feed(BUDGET * 2, WINDOW);
+        assertEquals(FrameTimeGovernor.LEVEL_LOW_PART, mGovernor.getLevel());
+
+        feed(BUDGET / 2, WINDOW * 2);
+        assertEquals(FrameTimeGovernor.LEVEL_LOW_PART, mGovernor.getLevel());
+        feed(BUDGET / 2, WINDOW);
+        assertEquals(FrameTimeGovernor.LEVEL_NORMAL, mGovernor.getLevel());
+    }
+
+    @Test
+    public void nearBudget_doesNotOscillate() {
+        feed(BUDGET * 2, WINDOW);
+        //刚好低于预算但没有足够余量，保持降级
+        feed(BUDGET * 9 / 10, WINDOW * 10);
+        assertEquals(FrameTimeGovernor.LEVEL_LOW_PART, mGovernor.getLevel());
+        assertEquals(1, mChanges);
+    }
+
+    private void feed(long intervalNanos, int count) {
+        for (int i = 0; i < count; i++) {
+            mGovernor.onFrameTime(intervalNanos);
+        }
+    }
+}
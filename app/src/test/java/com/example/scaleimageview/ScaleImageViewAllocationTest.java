@@ -0,0 +1,165 @@
+package com.example.scaleimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PointF;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 手势、绘制热路径不分配内存
+ * 回放1000个触摸事件，每个事件后绘制一帧，统计当前线程分配的字节数
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ScaleImageViewAllocationTest {
+    private static final int EVENT_COUNT = 1000;
+    private static final int VIEW_SIZE = 1000;
+    private static final int FLING_EVENT_COUNT = 6;
+    //动画最多绘制的帧数
+    private static final int MAX_ANIM_FRAMES = 2000;
+
+    private ScaleImageView mView;
+    private Canvas mCanvas;
+    private MotionEvent mDown;
+    private MotionEvent mUp;
+    private final MotionEvent[] mMoves = new MotionEvent[EVENT_COUNT];
+    private final MotionEvent[] mFling = new MotionEvent[FLING_EVENT_COUNT];
+
+    @Before
+    public void setUp() {
+        mView = new ScaleImageView(RuntimeEnvironment.application);
+        mView.measure(View.MeasureSpec.makeMeasureSpec(VIEW_SIZE, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(VIEW_SIZE, View.MeasureSpec.EXACTLY));
+        mView.layout(0, 0, VIEW_SIZE, VIEW_SIZE);
+        mView.setImageBitmap(Bitmap.createBitmap(VIEW_SIZE, VIEW_SIZE * 2, Bitmap.Config.ARGB_8888));
+        mCanvas = new NoOpCanvas();
+        //适应屏幕时图片高度刚好等于view，放大后拖动和fling才会真正平移
+        mView.setMaxScale(4f);
+        mView.setScaleAndCenter(2f, new PointF(VIEW_SIZE / 2, VIEW_SIZE));
+        mView.onDraw(mCanvas);
+
+        //事件提前创建，只统计view自身的分配
+        long downTime = SystemClock.uptimeMillis();
+        mDown = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, VIEW_SIZE / 2, VIEW_SIZE / 2, 0);
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            //从中心上下往返拖动，最多300像素，放大后的图片上下各有1500像素可以平移，不会碰到边界
+            float y = VIEW_SIZE / 2 + (i % 200 < 100 ? i % 100 : 100 - i % 100) * 3;
+            mMoves[i] = MotionEvent.obtain(downTime, downTime + 16 + i * 16L, MotionEvent.ACTION_MOVE, VIEW_SIZE / 2, y, 0);
+        }
+        mUp = MotionEvent.obtain(downTime, downTime + 16 + EVENT_COUNT * 16L, MotionEvent.ACTION_UP, VIEW_SIZE / 2, VIEW_SIZE / 2, 0);
+
+        //快速向上滑动触发fling
+        long flingTime = mUp.getEventTime() + 1000;
+        for (int i = 0; i < FLING_EVENT_COUNT; i++) {
+            int action = i == 0 ? MotionEvent.ACTION_DOWN
+                    : (i == FLING_EVENT_COUNT - 1 ? MotionEvent.ACTION_UP : MotionEvent.ACTION_MOVE);
+            mFling[i] = MotionEvent.obtain(flingTime, flingTime + i * 10L, action, VIEW_SIZE / 2, VIEW_SIZE - i * 60, 0);
+        }
+    }
+
+    @Test
+    public void gestureAndDraw_allocateNothing() {
+        com.sun.management.ThreadMXBean bean = threadBean();
+        assumeTrue(bean != null && bean.isThreadAllocatedMemorySupported());
+        bean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        //预热一次完整手势，初始化画笔、scratch对象和动画
+        mView.onTouchEvent(mDown);
+        replay();
+        mView.onTouchEvent(mUp);
+        mView.onDraw(mCanvas);
+
+        //统计本身的开销
+        long baseline = bean.getThreadAllocatedBytes(threadId);
+        baseline = bean.getThreadAllocatedBytes(threadId) - baseline;
+
+        mView.onTouchEvent(mDown);
+        long start = bean.getThreadAllocatedBytes(threadId);
+        replay();
+        long allocated = bean.getThreadAllocatedBytes(threadId) - start - baseline;
+        mView.onTouchEvent(mUp);
+
+        assertEquals("bytes allocated during " + EVENT_COUNT + " events", 0, allocated);
+    }
+
+    @Test
+    public void animation_allocatesNothing() {
+        com.sun.management.ThreadMXBean bean = threadBean();
+        assumeTrue(bean != null && bean.isThreadAllocatedMemorySupported());
+        bean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        //预热一次动画
+        fling();
+        assertNotNull("fling did not start an animation", mView.getAnim());
+        drawAnimation();
+
+        long baseline = bean.getThreadAllocatedBytes(threadId);
+        baseline = bean.getThreadAllocatedBytes(threadId) - baseline;
+
+        fling();
+        long start = bean.getThreadAllocatedBytes(threadId);
+        drawAnimation();
+        long allocated = bean.getThreadAllocatedBytes(threadId) - start - baseline;
+
+        assertEquals("bytes allocated during animation", 0, allocated);
+    }
+
+    private void replay() {
+        for (MotionEvent move : mMoves) {
+            mView.onTouchEvent(move);
+            mView.onDraw(mCanvas);
+        }
+    }
+
+    private void fling() {
+        for (MotionEvent event : mFling) {
+            mView.onTouchEvent(event);
+        }
+    }
+
+    private void drawAnimation() {
+        for (int i = 0; i < MAX_ANIM_FRAMES && mView.getAnim() != null; i++) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                return;
+            }
+            mView.onDraw(mCanvas);
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+
+    /**
+     * 只统计view的分配，不执行实际绘制
+     */
+    private static class NoOpCanvas extends Canvas {
+        @Override
+        public void drawBitmap(Bitmap bitmap, Matrix matrix, Paint paint) {
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.scaleimageview.viewport.benchmark;
+
+import com.example.scaleimageview.viewport.ViewportEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 回放ScaleImageView中的手势计算序列，统计吞吐量和分配
+ * 每个benchmark对应一次完整手势：双指缩放、fling动画、双击缩放动画
+ */
+@State(Scope.Thread)
+public class ViewportBenchmark {
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    //一次手势的事件数、动画帧数
+    private static final int PINCH_EVENTS = 120;
+    private static final int ANIM_FRAMES = 30;
+    private static final long ANIM_DURATION = 500;
+
+    @Param({"1", "3"})
+    public int panLimit;
+
+    private final ViewportEngine mEngine = new ViewportEngine();
+    private final ViewportEngine.ScaleAndTranslate mSat = new ViewportEngine.ScaleAndTranslate();
+    private final ViewportEngine.ScaleAndTranslate mSatEnd = new ViewportEngine.ScaleAndTranslate();
+    private final ViewportEngine.ScaleAndTranslate mCenter = new ViewportEngine.ScaleAndTranslate();
+
+    @Setup
+    public void setUp() {
+        mEngine.setViewSize(VIEW_WIDTH, VIEW_HEIGHT);
+        mEngine.setPadding(0, 0, 0, 0);
+        mEngine.setSourceSize(VIEW_WIDTH, (int) (VIEW_WIDTH * 1.414f));
+        mEngine.setMaxScale(8f);
+        mEngine.setPanLimit(panLimit);
+        mEngine.setReady(true);
+    }
+
+    /**
+     * 双指缩放，以两指中点为焦点，每个move事件修正一次边界
+     */
+    @Benchmark
+    public float pinch() {
+        float minScale = mEngine.minScale();
+        mEngine.vTranslateForSCenter(VIEW_WIDTH >> 1, VIEW_HEIGHT >> 1, minScale, mSat);
+        float scaleStart = mSat.scale;
+        float translateStartX = mSat.translateX;
+        float translateStartY = mSat.translateY;
+        float vCenterX = VIEW_WIDTH * 0.4f;
+        float vCenterY = VIEW_HEIGHT * 0.6f;
+        float vDistStart = 200;
+        for (int i = 0; i < PINCH_EVENTS; i++) {
+            float vDistEnd = vDistStart + i * 8;
+            float scale = Math.min(mEngine.getMaxScale(), (vDistEnd / vDistStart) * scaleStart);
+            float vLeftNow = (vCenterX - translateStartX) * (scale / scaleStart);
+            float vTopNow = (vCenterY - translateStartY) * (scale / scaleStart);
+            mSat.set(scale, vCenterX + i - vLeftNow, vCenterY + i - vTopNow);
+            mEngine.fitToBounds(true, mSat);
+        }
+        return mSat.translateX + mSat.translateY + mSat.scale;
+    }
+
+    /**
+     * fling，目标中心点不做平移限制，每帧按easeOutQuad插值后修正边界
+     */
+    @Benchmark
+    public float fling() {
+        float scale = mEngine.minScale() * 2;
+        mEngine.vTranslateForSCenter(VIEW_WIDTH >> 1, VIEW_HEIGHT, scale, mSat);
+        float translateEndY = mSat.translateY - 6000 * 0.25f;
+        float sCenterEndX = ViewportEngine.viewToSource(mSat.translateX, scale, VIEW_WIDTH >> 1);
+        float sCenterEndY = ViewportEngine.viewToSource(translateEndY, scale, VIEW_HEIGHT >> 1);
+        animate(ViewportEngine.EASE_OUT_QUAD, scale, sCenterEndX, sCenterEndY, false);
+        return mSat.translateX + mSat.translateY + mSat.scale;
+    }
+
+    /**
+     * 双击放大，目标中心点和结束位移都经过边界修正，每帧按easeInOutQuad插值
+     */
+    @Benchmark
+    public float doubleTap() {
+        float minScale = mEngine.minScale();
+        mEngine.vTranslateForSCenter(VIEW_WIDTH >> 1, VIEW_HEIGHT >> 1, minScale, mSat);
+        float targetScale = mEngine.limitedScale(minScale * 3);
+        float vFocusX = VIEW_WIDTH * 0.8f;
+        float vFocusY = VIEW_HEIGHT * 0.2f;
+        float sFocusX = ViewportEngine.viewToSource(mSat.translateX, mSat.scale, vFocusX);
+        float sFocusY = ViewportEngine.viewToSource(mSat.translateY, mSat.scale, vFocusY);
+        mEngine.limitedSCenter(sFocusX, sFocusY, targetScale, mCenter);
+        mSatEnd.set(targetScale, vFocusX - targetScale * sFocusX, vFocusY - targetScale * sFocusY);
+        mEngine.fitToBounds(true, mSatEnd);
+        animate(ViewportEngine.EASE_IN_OUT_QUAD, targetScale, mCenter.translateX, mCenter.translateY, true);
+        return mSat.translateX + mSat.translateY + mSatEnd.translateX;
+    }
+
+    /**
+     * 与ScaleImageView#exeAnim相同的逐帧计算
+     */
+    private void animate(int easing, float scaleEnd, float sCenterEndX, float sCenterEndY, boolean center) {
+        float scaleStart = mSat.scale;
+        float vFocusStartX = ViewportEngine.sourceToView(mSat.translateX, scaleStart, sCenterEndX);
+        float vFocusStartY = ViewportEngine.sourceToView(mSat.translateY, scaleStart, sCenterEndY);
+        float vFocusEndX = mEngine.getViewCenterX();
+        float vFocusEndY = mEngine.getViewCenterY();
+        for (int frame = 1; frame <= ANIM_FRAMES; frame++) {
+            long elapsed = ANIM_DURATION * frame / ANIM_FRAMES;
+            float scale = ViewportEngine.ease(easing, elapsed, scaleStart, scaleEnd - scaleStart, ANIM_DURATION);
+            float vFocusNowX = ViewportEngine.ease(easing, elapsed, vFocusStartX, vFocusEndX - vFocusStartX, ANIM_DURATION);
+            float vFocusNowY = ViewportEngine.ease(easing, elapsed, vFocusStartY, vFocusEndY - vFocusStartY, ANIM_DURATION);
+            mSat.scale = scale;
+            mSat.translateX -= ViewportEngine.sourceToView(mSat.translateX, scale, sCenterEndX) - vFocusNowX;
+            mSat.translateY -= ViewportEngine.sourceToView(mSat.translateY, scale, sCenterEndY) - vFocusNowY;
+            mEngine.fitToBounds(center || frame == ANIM_FRAMES, mSat);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.scaleimageview.viewport;
+
+/**
+ * 视口计算，不依赖android
+ * 记录view尺寸、padding、底图尺寸和缩放/平移限制，计算最小缩放比、边界修正、中心点对应的位移和动画差值。
+ * 只做纯计算，所有结果写入调用方传入的对象，热路径上不申请内存。
+ */
+public class ViewportEngine {
+    //动画差值
+    public static final int EASE_OUT_QUAD = 1;
+    public static final int EASE_IN_OUT_QUAD = 2;
+    /**
+     * 最小缩放比模式
+     */
+    public static final int SCALE_TYPE_CENTER_INSIDE = 1;//默认值，选取bitmap与view宽高比最小的一个，并在另一个方向上居中
+    public static final int SCALE_TYPE_CENTER_CROP = 2;//选取bitmap与view宽高比最大的一个，并在另一个方向上居中
+    public static final int SCALE_TYPE_CUSTOM = 3;//使得view与bitmap两个方向上的缩放都大于minScale并小于maxScale
+    /**
+     * 滑动模式
+     */
+    public static final int PAN_LIMIT_INSIDE = 1;//默认值，不允许在屏幕外平移图像
+    public static final int PAN_LIMIT_OUTSIDE = 2;//允许在屏幕外平移图像，最大图像边界与view边界对其
+    public static final int PAN_LIMIT_CENTER = 3;//允许在屏幕外平移图像，最大图像边界到view中心
+
+    private int mViewWidth;
+    private int mViewHeight;
+    private int mPaddingLeft;
+    private int mPaddingTop;
+    private int mPaddingRight;
+    private int mPaddingBottom;
+    private int mSourceWidth;
+    private int mSourceHeight;
+    //就绪之后平移限制才生效
+    private boolean isReady;
+
+    private int mMinimumScaleType = SCALE_TYPE_CENTER_INSIDE;
+    private int mPanLimit = PAN_LIMIT_INSIDE;
+    private float mMinScale;
+    private float mMaxScale = 2f;
+
+    private final ScaleAndTranslate mSatTemp = new ScaleAndTranslate();
+
+    public void setViewSize(int width, int height) {
+        mViewWidth = width;
+        mViewHeight = height;
+    }
+
+    public void setPadding(int left, int top, int right, int bottom) {
+        mPaddingLeft = left;
+        mPaddingTop = top;
+        mPaddingRight = right;
+        mPaddingBottom = bottom;
+    }
+
+    public void setSourceSize(int width, int height) {
+        mSourceWidth = width;
+        mSourceHeight = height;
+    }
+
+    public void setReady(boolean ready) {
+        isReady = ready;
+    }
+
+    public void setMinimumScaleType(int type) {
+        mMinimumScaleType = type;
+    }
+
+    public void setPanLimit(int limit) {
+        mPanLimit = limit;
+    }
+
+    /**
+     * {@link #SCALE_TYPE_CUSTOM}时使用的最小缩放比
+     */
+    public void setMinScale(float minScale) {
+        mMinScale = minScale;
+    }
+
+    public void setMaxScale(float maxScale) {
+        mMaxScale = maxScale;
+    }
+
+    public float getMaxScale() {
+        return mMaxScale;
+    }
+
+    public int getViewWidth() {
+        return mViewWidth;
+    }
+
+    public int getViewHeight() {
+        return mViewHeight;
+    }
+
+    public float minScale() {
+        int vPadding = mPaddingBottom + mPaddingTop;
+        int hPadding = mPaddingLeft + mPaddingRight;
+        if (mMinimumScaleType == SCALE_TYPE_CENTER_CROP) {
+            return Math.max((mViewWidth - hPadding) / (float) mSourceWidth, (mViewHeight - vPadding) / (float) mSourceHeight);
+        } else if (mMinimumScaleType == SCALE_TYPE_CUSTOM && mMinScale > 0) {
+            return mMinScale;
+        } else {
+            return Math.min((mViewWidth - hPadding) / (float) mSourceWidth, (mViewHeight - vPadding) / (float) mSourceHeight);
+        }
+    }
+
+    /**
+     * 获取合适范围的缩放比例
+     */
+    public float limitedScale(float targetScale) {
+        targetScale = Math.max(minScale(), targetScale);
+        targetScale = Math.min(mMaxScale, targetScale);
+        return targetScale;
+    }
+
+    /**
+     * 调整参数，使得图像边界不会超出规定范围
+     *
+     * @param center true 图像小于view时居中
+     */
+    public void fitToBounds(boolean center, ScaleAndTranslate sat) {
+        if (mPanLimit == PAN_LIMIT_OUTSIDE && isReady) {
+            //可以滑出屏幕
+            center = false;
+        }
+
+        float scale = limitedScale(sat.scale);
+        float scaleWidth = scale * mSourceWidth;
+        float scaleHeight = scale * mSourceHeight;
+        float translateX = sat.translateX;
+        float translateY = sat.translateY;
+
+        //正方向最大滑动距离
+        if (mPanLimit == PAN_LIMIT_CENTER && isReady) {
+            translateX = Math.max(translateX, (mViewWidth >> 1) - scaleWidth);
+            translateY = Math.max(translateY, (mViewHeight >> 1) - scaleHeight);
+        } else if (center) {
+            translateX = Math.max(translateX, mViewWidth - scaleWidth);
+            translateY = Math.max(translateY, mViewHeight - scaleHeight);
+        } else {
+            translateX = Math.max(translateX, -scaleWidth);
+            translateY = Math.max(translateY, -scaleHeight);
+        }
+
+        float xPaddingRatio = mPaddingLeft > 0 || mPaddingRight > 0 ? mPaddingLeft / (float) (mPaddingLeft + mPaddingRight) : 0.5f;
+        float yPaddingRatio = mPaddingTop > 0 || mPaddingBottom > 0 ? mPaddingTop / (float) (mPaddingTop + mPaddingBottom) : 0.5f;
+
+        float maxTx;
+        float maxTy;
+        if (mPanLimit == PAN_LIMIT_CENTER && isReady) {
+            maxTx = Math.max(0, mViewWidth >> 1);
+            maxTy = Math.max(0, mViewHeight >> 1);
+        } else if (center) {
+            maxTx = Math.max(0, (mViewWidth - scaleWidth) * xPaddingRatio);
+            maxTy = Math.max(0, (mViewHeight - scaleHeight) * yPaddingRatio);
+        } else {
+            maxTx = Math.max(0, mViewWidth);
+            maxTy = Math.max(0, mViewHeight);
+        }
+        //负方向最大滑动距离
+        sat.translateX = Math.min(translateX, maxTx);
+        sat.translateY = Math.min(translateY, maxTy);
+        sat.scale = scale;
+    }
+
+    /**
+     * 让底图上的点位于view中心的位移，结果经过边界修正
+     */
+    public ScaleAndTranslate vTranslateForSCenter(float sCenterX, float sCenterY, float scale, ScaleAndTranslate out) {
+        out.scale = scale;
+        out.translateX = getViewCenterX() - (sCenterX * scale);
+        out.translateY = getViewCenterY() - (sCenterY * scale);
+        fitToBounds(true, out);
+        return out;
+    }
+
+    /**
+     * 经过边界修正之后，实际能够位于view中心的底图坐标
+     *
+     * @param out 只使用translateX、translateY作为底图坐标，scale为修正后的缩放比
+     */
+    public ScaleAndTranslate limitedSCenter(float sCenterX, float sCenterY, float scale, ScaleAndTranslate out) {
+        ScaleAndTranslate sat = vTranslateForSCenter(sCenterX, sCenterY, scale, mSatTemp);
+        out.scale = sat.scale;
+        out.translateX = (getViewCenterX() - sat.translateX) / scale;
+        out.translateY = (getViewCenterY() - sat.translateY) / scale;
+        return out;
+    }
+
+    /**
+     * 去掉padding之后view的中心
+     */
+    public int getViewCenterX() {
+        return mPaddingLeft + (mViewWidth - mPaddingRight - mPaddingLeft) >> 1;
+    }
+
+    public int getViewCenterY() {
+        return mPaddingTop + (mViewHeight - mPaddingBottom - mPaddingTop) >> 1;
+    }
+
+    /**
+     * 动画差值器
+     */
+    public static float ease(int type, long time, float from, float change, long duration) {
+        switch (type) {
+            case EASE_IN_OUT_QUAD:
+                return easeInOutQuad(time, from, change, duration);
+            case EASE_OUT_QUAD:
+                return easeOutQuad(time, from, change, duration);
+            default:
+                throw new IllegalStateException("Unexpected easing type: " + type);
+        }
+    }
+
+    public static float easeOutQuad(long time, float from, float change, long duration) {
+        float progress = (float) time / (float) duration;
+        return -change * progress * (progress - 2) + from;
+    }
+
+    public static float easeInOutQuad(long time, float from, float change, long duration) {
+        float timeF = time / (duration / 2f);
+        if (timeF < 1) {
+            return (change / 2f * timeF * timeF) + from;
+        } else {
+            timeF--;
+            return (-change / 2f) * (timeF * (timeF - 2) - 1) + from;
+        }
+    }
+
+    /**
+     * view坐标转bitmap坐标，x、y分别计算
+     */
+    public static float viewToSource(float translate, float scale, float v) {
+        return (v - translate) / scale;
+    }
+
+    /**
+     * bitmap坐标转view坐标，x、y分别计算
+     */
+    public static float sourceToView(float translate, float scale, float s) {
+        return (s * scale) + translate;
+    }
+
+    /**
+     * 缩放比和位移
+     */
+    public static class ScaleAndTranslate {
+        public float scale;
+        public float translateX;
+        public float translateY;
+
+        public ScaleAndTranslate set(float scale, float translateX, float translateY) {
+            this.scale = scale;
+            this.translateX = translateX;
+            this.translateY = translateY;
+            return this;
+        }
+    }
+}